@@ -0,0 +1,97 @@
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// CompletableFuture facade over any Library backend, so callers like the Swing UI never block
+// on a JDBC call. calls run on a small pool of daemon threads shared by all facades unless an
+// executor is passed in. cancelling a future before its call has started skips the call;
+// a call already running finishes and its result is dropped.
+public class AsyncLibrary {
+    private static final int THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static volatile ExecutorService shared;
+
+    private final Library lib;
+    private final ExecutorService executor;
+
+    public AsyncLibrary(Library lib) {
+        this(lib, sharedExecutor());
+    }
+
+    public AsyncLibrary(Library lib, ExecutorService executor) {
+        this.lib = lib;
+        this.executor = executor;
+    }
+
+    private static ExecutorService sharedExecutor() {
+        if (shared == null) {
+            synchronized (AsyncLibrary.class) {
+                if (shared == null) {
+                    AtomicInteger n = new AtomicInteger();
+                    shared = Executors.newFixedThreadPool(THREADS, r -> {
+                        Thread t = new Thread(r, "library-async-" + n.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+            }
+        }
+        return shared;
+    }
+
+    public Library getLibrary() {
+        return lib;
+    }
+
+    private <T> CompletableFuture<T> call(Supplier<T> work) {
+        return CompletableFuture.supplyAsync(work, executor);
+    }
+
+    public CompletableFuture<Void> addBook(Book book) {
+        return call(() -> { lib.addBook(book); return null; });
+    }
+
+    public CompletableFuture<Void> registerMember(Member member) {
+        return call(() -> { lib.registerMember(member); return null; });
+    }
+
+    public CompletableFuture<Boolean> borrowBook(String bookId, String memberId) {
+        return call(() -> lib.borrowBook(bookId, memberId));
+    }
+
+    public CompletableFuture<Boolean> returnBook(String bookId) {
+        return call(() -> lib.returnBook(bookId));
+    }
+
+    public CompletableFuture<List<Book>> search(String query, int limit) {
+        return call(() -> lib.search(query, limit));
+    }
+
+    public CompletableFuture<Integer> countBooks() {
+        return call(lib::countBooks);
+    }
+
+    public CompletableFuture<Optional<Book>> findBook(String id) {
+        return call(() -> lib.findBook(id));
+    }
+
+    public CompletableFuture<Boolean> memberExists(String id) {
+        return call(() -> lib.memberExists(id));
+    }
+
+    public CompletableFuture<List<Loan>> listLoans() {
+        return call(lib::listLoans);
+    }
+
+    public CompletableFuture<List<Loan>> listLoansByMember(String memberId) {
+        return call(() -> lib.listLoansByMember(memberId));
+    }
+
+    public CompletableFuture<List<Loan>> listLoansBorrowedBefore(LocalDate day) {
+        return call(() -> lib.listLoansBorrowedBefore(day));
+    }
+}
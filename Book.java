@@ -1,8 +1,10 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class Book {
     private final String id;
     private final String title;
     private final String author;
-    private boolean available = true;
+    private final AtomicBoolean available = new AtomicBoolean(true);
 
     public Book(String id, String title, String author) {
         this.id = id;
@@ -23,15 +25,20 @@ public class Book {
     }
 
     public boolean isAvailable() {
-        return available;
+        return available.get();
     }
 
     public void setAvailable(boolean available) {
-        this.available = available;
+        this.available.set(available);
+    }
+
+    // atomically flips available -> checked out; false if someone else got there first
+    public boolean tryCheckOut() {
+        return available.compareAndSet(true, false);
     }
 
     @Override
     public String toString() {
-        return id + " - " + title + " by " + author + (available ? " (available)" : " (borrowed)");
+        return id + " - " + title + " by " + author + (isAvailable() ? " (available)" : " (borrowed)");
     }
 }
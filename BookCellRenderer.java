@@ -0,0 +1,35 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+
+// one panel and two labels reused for every cell; fonts are derived once
+public class BookCellRenderer extends JPanel implements ListCellRenderer<Book> {
+    public static final int CELL_HEIGHT = 44;
+
+    private final JLabel title = new JLabel();
+    private final JLabel meta = new JLabel();
+
+    public BookCellRenderer() {
+        super(new BorderLayout(4, 2));
+        setBorder(new EmptyBorder(6, 6, 6, 6));
+        title.setFont(title.getFont().deriveFont(Font.BOLD, 12f));
+        meta.setFont(meta.getFont().deriveFont(Font.PLAIN, 11f));
+        meta.setForeground(Color.DARK_GRAY);
+        add(title, BorderLayout.NORTH);
+        add(meta, BorderLayout.SOUTH);
+    }
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends Book> list, Book value, int index, boolean isSelected, boolean cellHasFocus) {
+        if (value == null) {
+            title.setText("");
+            meta.setText("");
+        } else {
+            title.setText(value.getTitle());
+            meta.setText(value.getAuthor() + " — " + (value.isAvailable() ? "Available" : "Checked out"));
+        }
+        if (isSelected) { setBackground(list.getSelectionBackground()); setForeground(list.getSelectionForeground()); }
+        else { setBackground(list.getBackground()); setForeground(list.getForeground()); }
+        return this;
+    }
+}
@@ -0,0 +1,23 @@
+// a book id with how many times it was borrowed in some period
+public class BookCount {
+    private final String bookId;
+    private final long count;
+
+    public BookCount(String bookId, long count) {
+        this.bookId = bookId;
+        this.count = count;
+    }
+
+    public String getBookId() {
+        return bookId;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return bookId + " x" + count;
+    }
+}
@@ -0,0 +1,140 @@
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// lazy list model: the catalog is fetched in pages of PAGE_SIZE rows as JList asks for them,
+// only the most recently used MAX_PAGES pages are kept. search results are shown as a plain list.
+public class BookListModel extends AbstractListModel<Book> {
+    private static final int PAGE_SIZE = 200;
+    private static final int MAX_PAGES = 32;
+
+    private final Library lib;
+    private int size;
+    private List<Book> results;
+    private final Map<Integer, List<Book>> pages = new LinkedHashMap<Integer, List<Book>>(MAX_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Book>> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    // last id of each page seen so far, so the next page can be read with a keyset query
+    private final Map<Integer, String> pageEnds = new HashMap<>();
+
+    public BookListModel(Library lib) {
+        this.lib = lib;
+    }
+
+    public void showCatalog() {
+        showCatalog(lib.countBooks());
+    }
+
+    // catalogSize from a countBooks() already done off the EDT
+    public void showCatalog(int catalogSize) {
+        results = null;
+        reset(catalogSize);
+    }
+
+    public void showResults(List<Book> books) {
+        // copied: stale rows are replaced in place
+        results = new ArrayList<>(books);
+        reset(books.size());
+    }
+
+    private void reset(int newSize) {
+        pages.clear();
+        pageEnds.clear();
+        int old = size;
+        size = newSize;
+        if (old > 0) fireIntervalRemoved(this, 0, old - 1);
+        if (size > 0) fireIntervalAdded(this, 0, size - 1);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Book getElementAt(int index) {
+        if (results != null) return results.get(index);
+        List<Book> rows = page(index / PAGE_SIZE);
+        int off = index % PAGE_SIZE;
+        // rows can come back short if books vanished since the count was taken
+        return off < rows.size() ? rows.get(off) : null;
+    }
+
+    // true if applyChanges needs the current catalog size for this batch
+    public static boolean changesSize(List<LibraryEvent> batch) {
+        for (LibraryEvent e : batch) {
+            if (e.getType() == LibraryEvent.Type.BOOK_ADDED || e.getType() == LibraryEvent.Type.RELOAD) return true;
+        }
+        return false;
+    }
+
+    // applies a batch of LibraryEvents (call on the EDT). availability changes repaint just the
+    // affected rows, and only if they are loaded; new books in the catalog drop the cached pages
+    // so the visible ones are re-read in order. search results are a snapshot and stay as they are.
+    // catalogSize is countBooks() taken after the batch, when changesSize(batch) says it's needed
+    public void applyChanges(List<LibraryEvent> batch, int catalogSize) {
+        Map<String, LibraryEvent> changed = new HashMap<>();
+        boolean added = false;
+        for (LibraryEvent e : batch) {
+            if (e.getType() == LibraryEvent.Type.RELOAD) {
+                if (results == null) showCatalog(catalogSize);
+                else fireContentsChanged(this, 0, size - 1);
+                return;
+            }
+            if (e.getType() == LibraryEvent.Type.MEMBER_REGISTERED) continue;
+            changed.put(e.getId(), e);
+            if (e.getType() == LibraryEvent.Type.BOOK_ADDED) added = true;
+        }
+        if (results == null && added) {
+            int old = size;
+            size = catalogSize;
+            pages.clear();
+            pageEnds.clear();
+            if (size > old) fireIntervalAdded(this, old, size - 1);
+            if (Math.min(old, size) > 0) fireContentsChanged(this, 0, Math.min(old, size) - 1);
+            return;
+        }
+        if (results != null) {
+            for (int i = 0; i < results.size(); i++) update(results, i, i, changed);
+        } else {
+            // copied: the page map is access-ordered, so a repaint reading rows would reorder it
+            for (Map.Entry<Integer, List<Book>> page : new ArrayList<>(pages.entrySet())) {
+                List<Book> rows = page.getValue();
+                for (int i = 0; i < rows.size(); i++) update(rows, i, page.getKey() * PAGE_SIZE + i, changed);
+            }
+        }
+    }
+
+    private void update(List<Book> rows, int i, int index, Map<String, LibraryEvent> changed) {
+        Book row = rows.get(i);
+        LibraryEvent e = changed.get(row.getId());
+        if (e == null) return;
+        // never setAvailable on a row: in-memory rows are the live books, and flipping one back
+        // to available would let a checked-out book be lent again. those already agree; a stale
+        // copy (SQL, or SnapshotLibrary's, which can't be changed) is replaced with a fresh one
+        if (row.isAvailable() != e.isAvailable()) {
+            Book fresh = new Book(row.getId(), row.getTitle(), row.getAuthor());
+            fresh.setAvailable(e.isAvailable());
+            rows.set(i, fresh);
+        }
+        fireContentsChanged(this, index, index);
+    }
+
+    private List<Book> page(int p) {
+        List<Book> rows = pages.get(p);
+        if (rows != null) return rows;
+        String after = p == 0 ? null : pageEnds.get(p - 1);
+        // copied, like search results: stale rows are replaced in place
+        if (p == 0 || after != null) rows = new ArrayList<>(lib.listBooksAfter(after, PAGE_SIZE));
+        else rows = new ArrayList<>(lib.listBooksPage(p * PAGE_SIZE, PAGE_SIZE));
+        pages.put(p, rows);
+        if (!rows.isEmpty()) pageEnds.put(p, rows.get(rows.size() - 1).getId());
+        return rows;
+    }
+}
@@ -0,0 +1,6 @@
+import java.io.IOException;
+
+// receives catalog rows as plain fields from Library.exportBooks (CatalogExporter)
+public interface BookRowSink {
+    void book(String id, String title, String author, boolean available) throws IOException;
+}
@@ -0,0 +1,144 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+// read-through cache in front of a slower backend (SqlLibrary). caches book rows by id,
+// member existence (unknown ids too) and the full catalog listing; every write drops exactly
+// the entries it can have changed. a miss is only cached if the backend reported no error
+// while looking it up (errorCount), so a failed query doesn't hide a book or lock a member out.
+public class CachingLibrary extends ForwardingLibrary {
+    private static final String ALL = "";
+
+    private final LruCache<String, Optional<Book>> books;
+    private final LruCache<String, Boolean> members;
+    private final LruCache<String, List<Book>> catalog = new LruCache<>(1);
+    private final LruCache<String, Integer> count = new LruCache<>(1);
+
+    public CachingLibrary(Library delegate) {
+        this(delegate, 10_000, 10_000);
+    }
+
+    public CachingLibrary(Library delegate, int maxBooks, int maxMembers) {
+        super(delegate);
+        books = new LruCache<>(maxBooks);
+        members = new LruCache<>(maxMembers);
+        // writes made elsewhere (another process on the same database) arrive as backend events
+        delegate.addLibraryListener(this::invalidate);
+    }
+
+    @Override
+    public Optional<Book> findBook(String id) {
+        long errors = delegate.errorCount();
+        Optional<Book> found = books.get(id, k -> {
+            Optional<Book> b = delegate.findBook(k);
+            // null is not cached
+            return b.isPresent() || delegate.errorCount() == errors ? b : null;
+        });
+        return found != null ? found : Optional.empty();
+    }
+
+    @Override
+    public boolean memberExists(String id) {
+        long errors = delegate.errorCount();
+        Boolean known = members.get(id, k -> {
+            boolean exists = delegate.memberExists(k);
+            return exists || delegate.errorCount() == errors ? exists : null;
+        });
+        return known != null && known;
+    }
+
+    @Override
+    public List<Book> listAllBooks() {
+        // callers get their own copy, as with the uncached backends
+        return new ArrayList<>(catalog.get(ALL, k -> delegate.listAllBooks()));
+    }
+
+    @Override
+    public int countBooks() {
+        return count.get(ALL, k -> delegate.countBooks());
+    }
+
+    @Override
+    public void addBook(Book book) {
+        delegate.addBook(book);
+        bookChanged(book.getId());
+        count.invalidateAll();
+    }
+
+    @Override
+    public int addBooks(Iterable<Book> batch) {
+        // read once: batch may be a one-shot Iterable
+        List<Book> list = new ArrayList<>();
+        for (Book b : batch) list.add(b);
+        int n = delegate.addBooks(list);
+        for (Book b : list) books.invalidate(b.getId());
+        catalog.invalidateAll();
+        count.invalidateAll();
+        return n;
+    }
+
+    @Override
+    public void registerMember(Member member) {
+        delegate.registerMember(member);
+        members.invalidate(member.getId());
+    }
+
+    @Override
+    public int registerMembers(Iterable<Member> batch) {
+        List<Member> list = new ArrayList<>();
+        for (Member m : batch) list.add(m);
+        int n = delegate.registerMembers(list);
+        for (Member m : list) members.invalidate(m.getId());
+        return n;
+    }
+
+    @Override
+    public boolean borrowBook(String bookId, String memberId) {
+        boolean ok = delegate.borrowBook(bookId, memberId);
+        if (ok) bookChanged(bookId);
+        return ok;
+    }
+
+    @Override
+    public boolean returnBook(String bookId) {
+        boolean ok = delegate.returnBook(bookId);
+        if (ok) bookChanged(bookId);
+        return ok;
+    }
+
+    private void bookChanged(String id) {
+        books.invalidate(id);
+        catalog.invalidateAll();
+    }
+
+    private void invalidate(List<LibraryEvent> batch) {
+        for (LibraryEvent e : batch) {
+            switch (e.getType()) {
+                case BOOK_ADDED:
+                    count.invalidateAll();
+                    books.invalidate(e.getId());
+                    break;
+                case AVAILABILITY_CHANGED:
+                    books.invalidate(e.getId());
+                    break;
+                case MEMBER_REGISTERED:
+                    members.invalidate(e.getId());
+                    break;
+                case RELOAD:
+                    books.invalidateAll();
+                    members.invalidateAll();
+                    count.invalidateAll();
+                    break;
+            }
+        }
+        catalog.invalidateAll();
+    }
+
+    public LruCache<String, Optional<Book>> getBookCache() { return books; }
+    public LruCache<String, Boolean> getMemberCache() { return members; }
+    public LruCache<String, List<Book>> getCatalogCache() { return catalog; }
+
+    public String stats() {
+        return "books[" + books + "] members[" + members + "] catalog[" + catalog + "]";
+    }
+}
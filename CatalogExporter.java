@@ -0,0 +1,334 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// nightly catalog and active-loan export (union-catalog feeds, audits) as CSV or newline-
+// delimited JSON, optionally gzipped. rows come from the backend's export hooks
+// (Library.exportBooks/exportLoans) as plain fields, with no Book/Loan/Member built per row,
+// and are encoded as UTF-8 straight into one large direct buffer that goes to a FileChannel
+// whenever it fills, so memory stays flat however many rows there are. with gzip the buffer
+// is run through a raw Deflater into a second direct buffer and the gzip header and trailer
+// are written here. the static exports write to a .tmp sibling and move it into place only
+// once it is complete, so a failed export never leaves a truncated file that looks finished.
+//
+//   java CatalogExporter --backend memory|compact|sqlite --db jdbc:sqlite:library.db --out export
+//                        --format csv|ndjson --gzip true --books 1000000
+public class CatalogExporter implements AutoCloseable, BookRowSink, LoanRowSink {
+    public enum Format { CSV, NDJSON }
+
+    private static final int BUFFER = 1 << 20;
+    // the most one char can take once encoded: a JSON \\u00XX escape
+    private static final int MAX_CHAR = 6;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NO_INPUT = new byte[0];
+
+    private final FileChannel channel;
+    private final Format format;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER);
+    // gzip only
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private final ByteBuffer zbuf;
+    private long rows;
+
+    public CatalogExporter(Path file, Format format, boolean gzip) throws IOException {
+        this.format = format;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (gzip) {
+            // fastest level: at tens of millions of rows the deflate is most of the cost
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+            crc = new CRC32();
+            zbuf = ByteBuffer.allocateDirect(BUFFER);
+            // magic, deflate, no flags, no mtime, no extra flags, unknown OS
+            write(ByteBuffer.wrap(new byte[] {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff}));
+        } else {
+            deflater = null;
+            crc = null;
+            zbuf = null;
+        }
+    }
+
+    // the whole catalog; returns the number of rows written
+    public static long exportBooks(Library lib, Path file, Format format, boolean gzip) throws IOException {
+        return export(file, format, gzip, out -> {
+            if (format == Format.CSV) out.ascii("id,title,author,available\n");
+            lib.exportBooks(out);
+        });
+    }
+
+    // active loans; returns the number of rows written
+    public static long exportLoans(Library lib, Path file, Format format, boolean gzip) throws IOException {
+        return export(file, format, gzip, out -> {
+            if (format == Format.CSV) out.ascii("bookId,title,author,memberId,memberName,borrowDate\n");
+            lib.exportLoans(out);
+        });
+    }
+
+    private interface Rows {
+        void write(CatalogExporter out) throws IOException;
+    }
+
+    // file is only replaced by a complete export; on failure the .tmp is removed
+    private static long export(Path file, Format format, boolean gzip, Rows rows) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            long n;
+            try (CatalogExporter out = new CatalogExporter(tmp, format, gzip)) {
+                rows.write(out);
+                n = out.rows;
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return n;
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException d) {
+                e.addSuppressed(d);
+            }
+            throw e;
+        }
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    @Override
+    public void book(String id, String title, String author, boolean available) throws IOException {
+        if (format == Format.CSV) {
+            csv(id); comma(); csv(title); comma(); csv(author); comma();
+            ascii(available ? "true" : "false");
+        } else {
+            ascii("{\"id\":"); json(id);
+            ascii(",\"title\":"); json(title);
+            ascii(",\"author\":"); json(author);
+            ascii(available ? ",\"available\":true}" : ",\"available\":false}");
+        }
+        newline();
+    }
+
+    @Override
+    public void loan(String bookId, String title, String author, String memberId, String memberName, LocalDate borrowDate) throws IOException {
+        if (format == Format.CSV) {
+            csv(bookId); comma(); csv(title); comma(); csv(author); comma();
+            csv(memberId); comma(); csv(memberName); comma();
+            date(borrowDate);
+        } else {
+            ascii("{\"bookId\":"); json(bookId);
+            ascii(",\"title\":"); json(title);
+            ascii(",\"author\":"); json(author);
+            ascii(",\"memberId\":"); json(memberId);
+            ascii(",\"memberName\":"); json(memberName);
+            ascii(",\"borrowDate\":\""); date(borrowDate); ascii("\"}");
+        }
+        newline();
+    }
+
+    // ---- encoding ----
+
+    private void room(int bytes) throws IOException {
+        if (buf.remaining() < bytes) flush();
+    }
+
+    private void comma() throws IOException {
+        room(1);
+        buf.put((byte) ',');
+    }
+
+    private void newline() throws IOException {
+        room(1);
+        buf.put((byte) '\n');
+        rows++;
+    }
+
+    // s is known to be ASCII
+    private void ascii(String s) throws IOException {
+        room(s.length());
+        for (int i = 0; i < s.length(); i++) buf.put((byte) s.charAt(i));
+    }
+
+    // quoted only when it has to be (RFC 4180); null is an empty field
+    private void csv(String s) throws IOException {
+        if (s == null) return;
+        boolean quote = false;
+        for (int i = 0; i < s.length() && !quote; i++) {
+            char c = s.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            utf8(s);
+            return;
+        }
+        room(1);
+        buf.put((byte) '"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            room(MAX_CHAR);
+            if (c == '"') buf.put((byte) '"');
+            i = put(s, i);
+        }
+        room(1);
+        buf.put((byte) '"');
+    }
+
+    // escaped as LibraryServer.str does it
+    private void json(String s) throws IOException {
+        room(1);
+        if (s == null) {
+            ascii("null");
+            return;
+        }
+        buf.put((byte) '"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            room(MAX_CHAR);
+            switch (c) {
+                case '"': buf.put((byte) '\\').put((byte) '"'); break;
+                case '\\': buf.put((byte) '\\').put((byte) '\\'); break;
+                case '\n': buf.put((byte) '\\').put((byte) 'n'); break;
+                case '\r': buf.put((byte) '\\').put((byte) 'r'); break;
+                case '\t': buf.put((byte) '\\').put((byte) 't'); break;
+                default:
+                    if (c < 0x20) buf.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0').put(HEX[c >> 4]).put(HEX[c & 15]);
+                    else i = put(s, i);
+            }
+        }
+        room(1);
+        buf.put((byte) '"');
+    }
+
+    private void utf8(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            room(MAX_CHAR);
+            i = put(s, i);
+        }
+    }
+
+    // encodes the char at i, or the surrogate pair starting there; returns the index of the last
+    // char used. the caller has made room
+    private int put(String s, int i) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+            buf.put((byte) c);
+        } else if (c < 0x800) {
+            buf.put((byte) (0xc0 | c >> 6)).put((byte) (0x80 | c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(++i));
+            buf.put((byte) (0xf0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3f))
+                    .put((byte) (0x80 | cp >> 6 & 0x3f)).put((byte) (0x80 | cp & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+            buf.put((byte) '?');
+        } else {
+            buf.put((byte) (0xe0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3f)).put((byte) (0x80 | c & 0x3f));
+        }
+        return i;
+    }
+
+    // ISO yyyy-MM-dd without going through a String
+    private void date(LocalDate d) throws IOException {
+        room(10);
+        int y = d.getYear(), m = d.getMonthValue(), day = d.getDayOfMonth();
+        buf.put((byte) ('0' + y / 1000 % 10)).put((byte) ('0' + y / 100 % 10)).put((byte) ('0' + y / 10 % 10)).put((byte) ('0' + y % 10));
+        buf.put((byte) '-').put((byte) ('0' + m / 10)).put((byte) ('0' + m % 10));
+        buf.put((byte) '-').put((byte) ('0' + day / 10)).put((byte) ('0' + day % 10));
+    }
+
+    // ---- output ----
+
+    private void flush() throws IOException {
+        buf.flip();
+        if (deflater == null) {
+            write(buf);
+        } else {
+            int start = buf.position();
+            crc.update(buf);
+            buf.position(start);
+            deflater.setInput(buf);
+            while (!deflater.needsInput()) deflate();
+            // the deflater keeps a reference to its input; buf is about to be reused
+            deflater.setInput(NO_INPUT);
+        }
+        buf.clear();
+    }
+
+    private void deflate() throws IOException {
+        deflater.deflate(zbuf);
+        zbuf.flip();
+        write(zbuf);
+        zbuf.clear();
+    }
+
+    private void write(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) channel.write(b);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) deflate();
+                // trailer: crc32 and input size mod 2^32, little-endian
+                ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                trailer.putInt((int) crc.getValue()).putInt((int) deflater.getBytesRead());
+                trailer.flip();
+                write(trailer);
+            }
+            // on disk before the caller moves it into place
+            channel.force(true);
+        } finally {
+            if (deflater != null) deflater.end();
+            channel.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = LibraryBenchmark.parse(args);
+        Format format = Format.valueOf(opt.getOrDefault("format", "csv").toUpperCase(Locale.ROOT));
+        boolean gzip = Boolean.parseBoolean(opt.getOrDefault("gzip", "false"));
+        Path dir = Paths.get(opt.getOrDefault("out", "export"));
+        Files.createDirectories(dir);
+        int books = Integer.parseInt(opt.getOrDefault("books", "0"));
+        String backend = opt.getOrDefault("backend", "memory");
+        Library lib = "sqlite".equals(backend) ? new SqlLibrary(opt.getOrDefault("db", "jdbc:sqlite:library.db"))
+                : "compact".equals(backend) ? new CompactLibrary(books, 1000)
+                : new Library(books, 1000);
+        if (books > 0 && lib.countBooks() == 0) {
+            HttpLoadGenerator.seed(lib, books);
+            // every tenth book out on loan, so there is something to export
+            for (int i = 0; i < books; i += 10) lib.borrowBook("B" + i, "M" + i % 1000);
+        }
+        String ext = "." + format.name().toLowerCase(Locale.ROOT) + (gzip ? ".gz" : "");
+        try {
+            report("books", dir.resolve("books" + ext), f -> exportBooks(lib, f, format, gzip));
+            report("loans", dir.resolve("loans" + ext), f -> exportLoans(lib, f, format, gzip));
+        } finally {
+            if (lib instanceof AutoCloseable) ((AutoCloseable) lib).close();
+        }
+    }
+
+    private interface Export {
+        long run(Path file) throws IOException;
+    }
+
+    private static void report(String what, Path file, Export export) throws IOException {
+        long t0 = System.nanoTime();
+        long n = export.run(file);
+        double s = (System.nanoTime() - t0) / 1e9;
+        Runtime rt = Runtime.getRuntime();
+        System.out.println(String.format(Locale.ROOT, "%s: %d rows to %s in %.2f s (%.0f rows/s, %.1f MB, heap in use %d MB)",
+                what, n, file, s, n / s, Files.size(file) / 1e6, (rt.totalMemory() - rt.freeMemory()) >> 20));
+    }
+}
@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+// streams books (id,title,author[,available]) or members (id,name) from CSV into a Library in
+// chunks. after each chunk is stored the record count is written to a checkpoint file, so a
+// failed or interrupted import picks up where it stopped when run again with the same checkpoint.
+public class CatalogImporter {
+    public static final int DEFAULT_CHUNK = 5000;
+
+    private final Library lib;
+    private final int chunkSize;
+    private LongConsumer progress = n -> { };
+
+    public CatalogImporter(Library lib) {
+        this(lib, DEFAULT_CHUNK);
+    }
+
+    public CatalogImporter(Library lib, int chunkSize) {
+        this.lib = lib;
+        this.chunkSize = chunkSize;
+    }
+
+    // called with the running total of imported records after every chunk
+    public void setProgressListener(LongConsumer progress) {
+        this.progress = progress;
+    }
+
+    public long importBooks(Path csv, Path checkpoint) throws IOException {
+        return run(csv, checkpoint, r -> {
+            Book b = new Book(r.get(0).trim(), field(r, 1), field(r, 2));
+            if (r.size() > 3) b.setAvailable(!"0".equals(r.get(3).trim()) && !"false".equalsIgnoreCase(r.get(3).trim()));
+            return b;
+        }, lib::addBooks);
+    }
+
+    public long importMembers(Path csv, Path checkpoint) throws IOException {
+        return run(csv, checkpoint, r -> new Member(r.get(0).trim(), field(r, 1)), lib::registerMembers);
+    }
+
+    private static String field(List<String> r, int i) {
+        return i < r.size() ? r.get(i).trim() : "";
+    }
+
+    private interface RowMapper<T> {
+        T map(List<String> record);
+    }
+
+    private interface ChunkWriter<T> {
+        int write(List<T> chunk);
+    }
+
+    private <T> long run(Path csv, Path checkpoint, RowMapper<T> mapper, ChunkWriter<T> writer) throws IOException {
+        long done = readCheckpoint(checkpoint);
+        long seen = 0;
+        List<T> chunk = new ArrayList<>(chunkSize);
+        try (CsvReader in = new CsvReader(Files.newBufferedReader(csv, StandardCharsets.UTF_8))) {
+            List<String> r;
+            boolean first = true;
+            while ((r = in.next()) != null) {
+                boolean header = first && "id".equalsIgnoreCase(r.get(0).trim());
+                first = false;
+                if (header || r.get(0).trim().isEmpty()) continue;
+                if (seen++ < done) continue;
+                chunk.add(mapper.map(r));
+                if (chunk.size() == chunkSize) done = flush(chunk, done, writer, checkpoint);
+            }
+        }
+        if (!chunk.isEmpty()) done = flush(chunk, done, writer, checkpoint);
+        if (checkpoint != null) Files.deleteIfExists(checkpoint);
+        return done;
+    }
+
+    private <T> long flush(List<T> chunk, long done, ChunkWriter<T> writer, Path checkpoint) throws IOException {
+        int stored = writer.write(chunk);
+        if (stored < chunk.size()) {
+            done += stored;
+            writeCheckpoint(checkpoint, done);
+            throw new IOException("import stopped after " + done + " records");
+        }
+        done += stored;
+        chunk.clear();
+        writeCheckpoint(checkpoint, done);
+        progress.accept(done);
+        return done;
+    }
+
+    private static long readCheckpoint(Path checkpoint) throws IOException {
+        if (checkpoint == null || !Files.exists(checkpoint)) return 0;
+        String s = new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim();
+        return s.isEmpty() ? 0 : Long.parseLong(s);
+    }
+
+    private static void writeCheckpoint(Path checkpoint, long done) throws IOException {
+        if (checkpoint == null) return;
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.write(tmp, Long.toString(done).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// the whole catalog in id order, cached on local disk so the UI can show it the moment it
+// starts, before the backend is open. the file is stamped with the backend's catalogVersion()
+// and book count when written; a snapshot whose stamp no longer matches is still fine to show
+// while the real catalog loads, but has to be rewritten.
+//
+// file: int magic, int format, long catalog version, int count, then per book
+// id, title, author (int byte length + UTF-8) and an available flag.
+public class CatalogSnapshot {
+    private static final int MAGIC = 0x4c494243; // "LIBC"
+    private static final int FORMAT = 1;
+    private static final int HEADER = 20;
+    // three empty strings and the flag
+    private static final int MIN_BOOK = 13;
+    private static final int PAGE = 10_000;
+
+    private final long version;
+    private final List<Book> books;
+
+    private CatalogSnapshot(long version, List<Book> books) {
+        this.version = version;
+        this.books = books;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    // true if the snapshot still matches lib's catalog
+    public boolean isCurrent(long catalogVersion, int catalogSize) {
+        return catalogVersion >= 0 && catalogVersion == version && catalogSize == books.size();
+    }
+
+    // null if there is no snapshot yet or it can't be read. counts and lengths are checked
+    // against the file's size before anything is allocated for them, so a damaged file can't
+    // run the caller out of memory
+    public static CatalogSnapshot read(Path file) {
+        try (DataInputStream s = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            long size = Files.size(file);
+            if (s.readInt() != MAGIC || s.readInt() != FORMAT) return null;
+            long version = s.readLong();
+            int n = s.readInt();
+            if (n < 0 || n > (size - HEADER) / MIN_BOOK) throw new IOException("bad book count " + n);
+            List<Book> books = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                Book b = new Book(readString(s, size), readString(s, size), readString(s, size));
+                b.setAvailable(s.readBoolean());
+                books.add(b);
+            }
+            return new CatalogSnapshot(version, books);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (EOFException e) {
+            System.err.println("CatalogSnapshot: ignoring truncated " + file);
+            return null;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // reads lib's catalog once, in id order by keyset pages, into a new snapshot file and
+    // returns what was written. the version is taken before reading, so a write that lands
+    // during the read leaves the file stamped older than its contents and it is redone next time
+    public static CatalogSnapshot write(Library lib, Path file) throws IOException {
+        long version = lib.catalogVersion();
+        List<Book> books = new ArrayList<>();
+        for (List<Book> page = lib.listBooksAfter(null, PAGE); !page.isEmpty();
+                page = lib.listBooksAfter(page.get(page.size() - 1).getId(), PAGE)) {
+            books.addAll(page);
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream s = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            s.writeInt(MAGIC);
+            s.writeInt(FORMAT);
+            s.writeLong(version);
+            s.writeInt(books.size());
+            for (Book b : books) {
+                writeString(s, b.getId());
+                writeString(s, nonNull(b.getTitle()));
+                writeString(s, nonNull(b.getAuthor()));
+                s.writeBoolean(b.isAvailable());
+            }
+        }
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new CatalogSnapshot(version, books);
+    }
+
+    private static void writeString(DataOutputStream s, String v) throws IOException {
+        byte[] b = v.getBytes(StandardCharsets.UTF_8);
+        s.writeInt(b.length);
+        s.write(b);
+    }
+
+    private static String readString(DataInputStream s, long size) throws IOException {
+        int n = s.readInt();
+        if (n < 0 || n > size) throw new IOException("bad string length " + n);
+        byte[] b = new byte[n];
+        s.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static String nonNull(String s) {
+        return s == null ? "" : s;
+    }
+}
@@ -0,0 +1,183 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+// stress check for concurrent circulation: desks borrow from a small catalog, so most borrows
+// race for the same books. in the first half desks return only what they borrowed; while they
+// run, every won borrow is counted per book and a second holder is a double loan. in the second
+// half desks return any book, so returns race with the borrows of other desks. after each half
+// the loans have to agree with Book.isAvailable, listLoansByMember and listLoansBorrowedBefore.
+// exits 1 on any violation.
+//
+//   java CirculationStressCheck --backend memory|compact|snapshot --books 64 --members 200
+//                               --threads 16 --seconds 5
+public class CirculationStressCheck {
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = LibraryBenchmark.parse(args);
+        String backend = opt.getOrDefault("backend", "memory");
+        int books = Integer.parseInt(opt.getOrDefault("books", "64"));
+        int members = Integer.parseInt(opt.getOrDefault("members", "200"));
+        int threads = Integer.parseInt(opt.getOrDefault("threads", "16"));
+        double seconds = Double.parseDouble(opt.getOrDefault("seconds", "5"));
+        Library lib = "compact".equals(backend) ? new CompactLibrary(books, members)
+                : "snapshot".equals(backend) ? new SnapshotLibrary(books)
+                : new Library(books, members);
+        List<String> problems = run(lib, books, members, threads, seconds);
+        if (problems.isEmpty()) {
+            System.out.println("CirculationStressCheck: " + backend + " ok");
+        } else {
+            for (String p : problems.subList(0, Math.min(20, problems.size()))) System.err.println(p);
+            System.err.println("CirculationStressCheck: " + backend + " FAILED, " + problems.size() + " problems");
+            System.exit(1);
+        }
+    }
+
+    // returns the violations found, none if the library held up
+    static List<String> run(Library lib, int books, int members, int threads, double seconds) throws InterruptedException {
+        List<Book> catalog = new ArrayList<>(books);
+        for (int i = 0; i < books; i++) catalog.add(new Book("B" + i, "title " + i, "author " + i % 7));
+        lib.addBooks(catalog);
+        List<Member> people = new ArrayList<>(members);
+        for (int i = 0; i < members; i++) people.add(new Member("M" + i, "Member " + i));
+        lib.registerMembers(people);
+
+        List<String> problems = ownReturns(lib, books, members, threads, seconds / 2);
+        if (problems.isEmpty()) problems = crossReturns(lib, books, members, threads, seconds / 2);
+        return problems;
+    }
+
+    // desks return only their own books
+    private static List<String> ownReturns(Library lib, int books, int members, int threads, double seconds) throws InterruptedException {
+        AtomicIntegerArray holders = new AtomicIntegerArray(books);
+        AtomicLong doubleLoans = new AtomicLong();
+        AtomicLong borrows = new AtomicLong();
+        AtomicLong failedReturns = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long durationNs = (long) (seconds * 1e9);
+        for (int t = 0; t < threads; t++) {
+            Thread th = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                List<Integer> held = new ArrayList<>();
+                try {
+                    start.await();
+                    long end = System.nanoTime() + durationNs;
+                    while (System.nanoTime() < end) {
+                        if (held.isEmpty() || rnd.nextInt(3) != 0) {
+                            int b = rnd.nextInt(books);
+                            if (lib.borrowBook("B" + b, "M" + rnd.nextInt(members))) {
+                                borrows.incrementAndGet();
+                                if (holders.incrementAndGet(b) != 1) doubleLoans.incrementAndGet();
+                                held.add(b);
+                            }
+                        } else {
+                            int b = held.remove(rnd.nextInt(held.size()));
+                            // released first: once returned the book may be won again at once
+                            holders.decrementAndGet(b);
+                            if (!lib.returnBook("B" + b)) failedReturns.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                } finally { done.countDown(); }
+            }, "desk-" + t);
+            th.start();
+        }
+        start.countDown();
+        done.await();
+
+        List<String> problems = new ArrayList<>();
+        if (doubleLoans.get() > 0) problems.add(doubleLoans.get() + " double loans in " + borrows.get() + " borrows");
+        if (failedReturns.get() > 0) problems.add(failedReturns.get() + " returns of held books failed");
+        Set<String> onLoan = checkLoans(lib, books, members, problems);
+        for (int i = 0; i < books; i++) {
+            boolean out = onLoan.contains("B" + i);
+            if (out != (holders.get(i) == 1)) problems.add("B" + i + " held by " + holders.get(i) + " desks but " + (out ? "on loan" : "not on loan"));
+        }
+        System.out.println("CirculationStressCheck: " + threads + " desks, own returns, " + borrows.get() + " borrows, " + onLoan.size() + " still out");
+        return problems;
+    }
+
+    // desks return random books, mostly ones some other desk borrowed, often while that
+    // borrow is still filling in its indexes
+    private static List<String> crossReturns(Library lib, int books, int members, int threads, double seconds) throws InterruptedException {
+        int ownOut = lib.listLoans().size();
+        AtomicLong borrows = new AtomicLong();
+        AtomicLong returns = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long durationNs = (long) (seconds * 1e9);
+        for (int t = 0; t < threads; t++) {
+            Thread th = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                    long end = System.nanoTime() + durationNs;
+                    while (System.nanoTime() < end) {
+                        String id = "B" + rnd.nextInt(books);
+                        if (rnd.nextBoolean()) {
+                            if (lib.borrowBook(id, "M" + rnd.nextInt(members))) borrows.incrementAndGet();
+                        } else if (lib.returnBook(id)) {
+                            returns.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                } finally { done.countDown(); }
+            }, "desk-" + t);
+            th.start();
+        }
+        start.countDown();
+        done.await();
+
+        List<String> problems = new ArrayList<>();
+        Set<String> onLoan = checkLoans(lib, books, members, problems);
+        if (borrows.get() - returns.get() != onLoan.size() - ownOut) {
+            problems.add(borrows.get() + " borrows and " + returns.get() + " returns but " + onLoan.size() + " out, " + ownOut + " before");
+        }
+        System.out.println("CirculationStressCheck: " + threads + " desks, cross returns, " + borrows.get() + " borrows, " + returns.get() + " returns, " + onLoan.size() + " still out");
+        return problems;
+    }
+
+    // the active loans, checked against availability and both loan indexes; returns the ids on loan
+    private static Set<String> checkLoans(Library lib, int books, int members, List<String> problems) {
+        Set<String> onLoan = new HashSet<>();
+        for (Loan l : lib.listLoans()) {
+            if (!onLoan.add(l.getBook().getId())) problems.add("two active loans of " + l.getBook().getId());
+        }
+        for (int i = 0; i < books; i++) {
+            String id = "B" + i;
+            Book b = lib.findBook(id).orElse(null);
+            if (b == null) {
+                problems.add(id + " is gone");
+                continue;
+            }
+            boolean out = onLoan.contains(id);
+            if (b.isAvailable() == out) problems.add(id + " available=" + b.isAvailable() + " but " + (out ? "on loan" : "not on loan"));
+        }
+        int byMember = 0;
+        for (int m = 0; m < members; m++) {
+            String id = "M" + m;
+            for (Loan l : lib.listLoansByMember(id)) {
+                byMember++;
+                if (!l.getMember().getId().equals(id)) problems.add("loan of " + l.getBook().getId() + " listed under " + id);
+                if (!onLoan.contains(l.getBook().getId())) problems.add(id + " lists " + l.getBook().getId() + ", which isn't on loan");
+            }
+        }
+        if (byMember != onLoan.size()) problems.add(byMember + " loans by member but " + onLoan.size() + " active loans");
+        // a return that beat the borrow's index updates would leave a loan here that's gone
+        Set<String> byDate = new HashSet<>();
+        for (Loan l : lib.listLoansBorrowedBefore(LocalDate.now().plusDays(1))) {
+            String id = l.getBook().getId();
+            if (!byDate.add(id)) problems.add(id + " listed twice by borrow date");
+            if (!onLoan.contains(id)) problems.add(id + " listed by borrow date, but isn't on loan");
+        }
+        if (byDate.size() != onLoan.size()) problems.add(byDate.size() + " loans by borrow date but " + onLoan.size() + " active loans");
+        return onLoan;
+    }
+}
@@ -0,0 +1,506 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+// Library for very large catalogs. books and members get dense int ordinals and live in
+// parallel arrays (struct of arrays) instead of one object graph per book: ids and titles
+// are plain String columns, authors are deduplicated into a dictionary, availability is one
+// bit per book and an active loan is two ints (member ordinal, borrow epoch day).
+// Book/Loan/Member objects handed out are short-lived views over the columns.
+//
+// differences from Library: pages (listBooksAfter/listBooksPage) follow insertion order
+// rather than id order, and search scans the title/author columns instead of keeping a
+// trigram index, which would cost more memory than the catalog itself.
+public class CompactLibrary extends Library {
+    private static final int NO_LOAN = -1;
+
+    // adding books/members grows the columns and takes the write lock; everything else,
+    // circulation included, runs under the read lock and uses atomics per book
+    private final ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+
+    private final IdTable bookIds;
+    private String[] titles;
+    private int[] authorOf;
+    private final IdTable authors = new IdTable(1024);
+    private AtomicLongArray available;
+    private AtomicIntegerArray loanMember;
+    private int[] loanDay;
+
+    private final IdTable memberIds;
+    private String[] memberNames;
+
+    public CompactLibrary() {
+        this(1024, 1024);
+    }
+
+    public CompactLibrary(int expectedBooks, int expectedMembers) {
+        super(16, 16);
+        int cap = Math.max(16, expectedBooks);
+        bookIds = new IdTable(cap);
+        titles = new String[cap];
+        authorOf = new int[cap];
+        available = new AtomicLongArray((cap + 63) >>> 6);
+        loanMember = new AtomicIntegerArray(cap);
+        loanDay = new int[cap];
+        memberIds = new IdTable(Math.max(16, expectedMembers));
+        memberNames = new String[Math.max(16, expectedMembers)];
+    }
+
+    // ---- open-addressing String -> ordinal table; keys are also the ordinal-indexed column ----
+
+    static final class IdTable {
+        private String[] keys;
+        private int[] slots; // ordinal + 1, 0 = empty
+        private int size;
+
+        IdTable(int capacity) {
+            keys = new String[capacity];
+            slots = new int[Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1];
+        }
+
+        int get(String key) {
+            int mask = slots.length - 1;
+            for (int i = mix(key.hashCode()) & mask; ; i = (i + 1) & mask) {
+                int s = slots[i];
+                if (s == 0) return -1;
+                if (keys[s - 1].equals(key)) return s - 1;
+            }
+        }
+
+        // ordinal of key, adding it if new
+        int add(String key) {
+            int existing = get(key);
+            if (existing >= 0) return existing;
+            if (size == keys.length) keys = Arrays.copyOf(keys, size * 2);
+            if ((size + 1) * 2 > slots.length) rehash(slots.length * 2);
+            keys[size] = key;
+            insert(key, size);
+            return size++;
+        }
+
+        private void insert(String key, int ord) {
+            int mask = slots.length - 1;
+            int i = mix(key.hashCode()) & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = ord + 1;
+        }
+
+        private void rehash(int capacity) {
+            slots = new int[capacity];
+            for (int ord = 0; ord < size; ord++) insert(keys[ord], ord);
+        }
+
+        private static int mix(int h) {
+            return h ^ (h >>> 16);
+        }
+
+        String key(int ord) {
+            return keys[ord];
+        }
+
+        int size() {
+            return size;
+        }
+
+        long bytes() {
+            return 16L + keys.length * 4L + slots.length * 4L;
+        }
+    }
+
+    // ---- views ----
+
+    private final class BookView extends Book {
+        private final int ord;
+
+        BookView(int ord) {
+            super(bookIds.key(ord), titles[ord], authors.key(authorOf[ord]));
+            this.ord = ord;
+        }
+
+        // the bit array is replaced when the catalog grows, so it is only touched under the
+        // read lock: a CAS on the old array after the copy would be lost
+        @Override
+        public boolean isAvailable() {
+            return read(CompactLibrary.this::isSet, ord);
+        }
+
+        @Override
+        public void setAvailable(boolean a) {
+            read(o -> { setBit(o, a); return null; }, ord);
+        }
+
+        @Override
+        public boolean tryCheckOut() {
+            return read(o -> casBit(o, true, false), ord);
+        }
+    }
+
+    private Member memberView(int m) {
+        return new Member(memberIds.key(m), memberNames[m]);
+    }
+
+    private Loan loanView(int ord, int member) {
+        return new Loan(new BookView(ord), memberView(member), LocalDate.ofEpochDay(loanDay[ord]), null);
+    }
+
+    // ---- availability bits ----
+
+    // all of these run under the read lock (or the write lock): ensureBookCapacity swaps the array
+
+    private boolean isSet(int ord) {
+        return (available.get(ord >>> 6) & (1L << ord)) != 0;
+    }
+
+    private void setBit(int ord, boolean value) {
+        while (!casBit(ord, !value, value) && isSet(ord) != value) { }
+    }
+
+    private boolean casBit(int ord, boolean expect, boolean update) {
+        int w = ord >>> 6;
+        long bit = 1L << ord;
+        while (true) {
+            long cur = available.get(w);
+            if (((cur & bit) != 0) != expect) return false;
+            long next = update ? cur | bit : cur & ~bit;
+            if (available.compareAndSet(w, cur, next)) return true;
+        }
+    }
+
+    // ---- writes ----
+
+    @Override
+    public void addBook(Book book) {
+        rw.writeLock().lock();
+        try {
+            int ord = bookIds.get(book.getId());
+            if (ord < 0) {
+                ord = bookIds.size();
+                ensureBookCapacity(ord + 1);
+                bookIds.add(book.getId());
+                loanMember.set(ord, NO_LOAN);
+            }
+            titles[ord] = book.getTitle();
+            authorOf[ord] = authors.add(book.getAuthor());
+            setBit(ord, book.isAvailable());
+        } finally { rw.writeLock().unlock(); }
+        events.bookAdded(book.getId(), book.isAvailable());
+    }
+
+    private void ensureBookCapacity(int n) {
+        if (n <= titles.length) return;
+        int cap = Math.max(n, titles.length * 2);
+        titles = Arrays.copyOf(titles, cap);
+        authorOf = Arrays.copyOf(authorOf, cap);
+        loanDay = Arrays.copyOf(loanDay, cap);
+        AtomicIntegerArray lm = new AtomicIntegerArray(cap);
+        for (int i = 0; i < loanMember.length(); i++) lm.set(i, loanMember.get(i));
+        loanMember = lm;
+        AtomicLongArray av = new AtomicLongArray((cap + 63) >>> 6);
+        for (int i = 0; i < available.length(); i++) av.set(i, available.get(i));
+        available = av;
+    }
+
+    @Override
+    public int addBooks(Iterable<Book> batch) {
+        int n = 0;
+        for (Book b : batch) { addBook(b); n++; }
+        return n;
+    }
+
+    @Override
+    public void registerMember(Member member) {
+        rw.writeLock().lock();
+        try {
+            int m = memberIds.add(member.getId());
+            if (m >= memberNames.length) memberNames = Arrays.copyOf(memberNames, memberNames.length * 2);
+            memberNames[m] = member.getName();
+        } finally { rw.writeLock().unlock(); }
+        events.memberRegistered(member.getId());
+    }
+
+    @Override
+    public int registerMembers(Iterable<Member> batch) {
+        int n = 0;
+        for (Member m : batch) { registerMember(m); n++; }
+        return n;
+    }
+
+    @Override
+    protected boolean borrowBook(String bookId, String memberId, LocalDate day) {
+        rw.readLock().lock();
+        try {
+            int ord = bookIds.get(bookId);
+            int m = memberIds.get(memberId);
+            if (ord < 0 || m < 0) return false;
+            if (!casBit(ord, true, false)) return false;
+            loanDay[ord] = (int) day.toEpochDay();
+            loanMember.set(ord, m);
+        } finally { rw.readLock().unlock(); }
+        events.availabilityChanged(bookId, false);
+        return true;
+    }
+
+    @Override
+    protected boolean returnBook(String bookId, LocalDate day) {
+        rw.readLock().lock();
+        try {
+            int ord = bookIds.get(bookId);
+            if (ord < 0) return false;
+            // claiming the loan column is what makes a return win, as loans.remove does in Library
+            int m = loanMember.getAndSet(ord, NO_LOAN);
+            if (m == NO_LOAN) return false;
+            getHistory().append(bookId, memberIds.key(m), loanDay[ord], (int) day.toEpochDay());
+            setBit(ord, true);
+        } finally { rw.readLock().unlock(); }
+        events.availabilityChanged(bookId, true);
+        return true;
+    }
+
+    // ---- reads ----
+
+    @Override
+    public int countBooks() {
+        rw.readLock().lock();
+        try {
+            return bookIds.size();
+        } finally { rw.readLock().unlock(); }
+    }
+
+    @Override
+    public Optional<Book> findBook(String id) {
+        rw.readLock().lock();
+        try {
+            int ord = bookIds.get(id);
+            return ord < 0 ? Optional.empty() : Optional.of(new BookView(ord));
+        } finally { rw.readLock().unlock(); }
+    }
+
+    @Override
+    public boolean memberExists(String id) {
+        rw.readLock().lock();
+        try {
+            return memberIds.get(id) >= 0;
+        } finally { rw.readLock().unlock(); }
+    }
+
+    @Override
+    public Optional<Member> findMember(String id) {
+        rw.readLock().lock();
+        try {
+            int m = memberIds.get(id);
+            return m < 0 ? Optional.empty() : Optional.of(memberView(m));
+        } finally { rw.readLock().unlock(); }
+    }
+
+    // ordinals that exist right now; the views are built lazily as the stream is consumed
+    private IntStream ordinals() {
+        return IntStream.range(0, countBooks());
+    }
+
+    private <T> T read(IntFunction<T> f, int ord) {
+        rw.readLock().lock();
+        try {
+            return f.apply(ord);
+        } finally { rw.readLock().unlock(); }
+    }
+
+    @Override
+    public Stream<Book> streamBooks() {
+        return ordinals().mapToObj(ord -> read(BookView::new, ord));
+    }
+
+    @Override
+    public Stream<Book> streamAvailableBooks() {
+        return ordinals().filter(ord -> read(this::isSet, ord)).mapToObj(ord -> read(BookView::new, ord));
+    }
+
+    @Override
+    public Stream<Loan> streamLoans() {
+        return ordinals().mapToObj(ord -> read(o -> {
+            int m = loanMember.get(o);
+            return m == NO_LOAN ? null : loanView(o, m);
+        }, ord)).filter(Objects::nonNull);
+    }
+
+    @Override
+    public Stream<Member> streamMembers() {
+        rw.readLock().lock();
+        try {
+            return IntStream.range(0, memberIds.size()).mapToObj(m -> read(this::memberView, m));
+        } finally { rw.readLock().unlock(); }
+    }
+
+    // the columns go to the sink without views; the read lock is held per row, never across the sink
+    @Override
+    public void exportBooks(BookRowSink sink) throws IOException {
+        int n = countBooks();
+        for (int ord = 0; ord < n; ord++) {
+            String id, title, author;
+            boolean free;
+            rw.readLock().lock();
+            try {
+                id = bookIds.key(ord);
+                title = titles[ord];
+                author = authors.key(authorOf[ord]);
+                free = isSet(ord);
+            } finally { rw.readLock().unlock(); }
+            sink.book(id, title, author, free);
+        }
+    }
+
+    @Override
+    public void exportLoans(LoanRowSink sink) throws IOException {
+        exportLoans(null, null, sink);
+    }
+
+    // partition key: the book ordinal, zero-padded so string order is number order
+    @Override
+    public List<String> loanPartitions(int parts) {
+        int n = countBooks();
+        List<String> splits = new ArrayList<>(Math.max(0, parts - 1));
+        for (int i = 1; i < parts; i++) splits.add(String.format(Locale.ROOT, "%010d", (long) n * i / parts));
+        return splits;
+    }
+
+    @Override
+    public void exportLoans(String fromKey, String toKey, LoanRowSink sink) throws IOException {
+        int from = fromKey == null ? 0 : Integer.parseInt(fromKey);
+        int n = toKey == null ? countBooks() : Math.min(countBooks(), Integer.parseInt(toKey));
+        for (int ord = from; ord < n; ord++) {
+            String id, title, author, memberId, memberName;
+            int day;
+            rw.readLock().lock();
+            try {
+                int m = loanMember.get(ord);
+                if (m == NO_LOAN) continue;
+                id = bookIds.key(ord);
+                title = titles[ord];
+                author = authors.key(authorOf[ord]);
+                memberId = memberIds.key(m);
+                memberName = memberNames[m];
+                day = loanDay[ord];
+            } finally { rw.readLock().unlock(); }
+            sink.loan(id, title, author, memberId, memberName, LocalDate.ofEpochDay(day));
+        }
+    }
+
+    @Override
+    public List<Book> listAllBooks() {
+        return collect(streamBooks());
+    }
+
+    @Override
+    public List<Book> listAvailableBooks() {
+        return collect(streamAvailableBooks());
+    }
+
+    @Override
+    public List<Loan> listLoans() {
+        return collect(streamLoans());
+    }
+
+    private static <T> List<T> collect(Stream<T> s) {
+        List<T> out = new ArrayList<>();
+        s.forEach(out::add);
+        return out;
+    }
+
+    // no secondary loan indexes here: a scan of the int columns is cheap enough and only the
+    // matching loans get views
+    @Override
+    public List<Loan> listLoansByMember(String memberId) {
+        List<Loan> out = new ArrayList<>();
+        rw.readLock().lock();
+        try {
+            int m = memberIds.get(memberId);
+            if (m < 0) return out;
+            for (int ord = 0, n = bookIds.size(); ord < n; ord++) {
+                if (loanMember.get(ord) == m) out.add(loanView(ord, m));
+            }
+        } finally { rw.readLock().unlock(); }
+        return out;
+    }
+
+    @Override
+    public List<Loan> listLoansBorrowedBefore(LocalDate day) {
+        List<Loan> out = new ArrayList<>();
+        int cutoff = (int) day.toEpochDay();
+        rw.readLock().lock();
+        try {
+            for (int ord = 0, n = bookIds.size(); ord < n; ord++) {
+                int m = loanMember.get(ord);
+                if (m != NO_LOAN && loanDay[ord] < cutoff) out.add(loanView(ord, m));
+            }
+        } finally { rw.readLock().unlock(); }
+        out.sort((a, b) -> a.getBorrowDate().compareTo(b.getBorrowDate()));
+        return out;
+    }
+
+    @Override
+    public List<Book> listBooksAfter(String afterId, int limit) {
+        int from = 0;
+        if (afterId != null) {
+            rw.readLock().lock();
+            try {
+                int ord = bookIds.get(afterId);
+                if (ord < 0) return new ArrayList<>();
+                from = ord + 1;
+            } finally { rw.readLock().unlock(); }
+        }
+        return listBooksPage(from, limit);
+    }
+
+    @Override
+    public List<Book> listBooksPage(int offset, int limit) {
+        rw.readLock().lock();
+        try {
+            int end = (int) Math.min((long) offset + limit, bookIds.size());
+            List<Book> out = new ArrayList<>(Math.max(0, end - offset));
+            for (int ord = offset; ord < end; ord++) out.add(new BookView(ord));
+            return out;
+        } finally { rw.readLock().unlock(); }
+    }
+
+    @Override
+    public List<Book> search(String query, int limit) {
+        String q = query == null ? "" : query.trim();
+        List<Book> out = new ArrayList<>();
+        rw.readLock().lock();
+        try {
+            for (int ord = 0, n = bookIds.size(); ord < n && out.size() < limit; ord++) {
+                if (q.isEmpty() || containsIgnoreCase(titles[ord], q) || containsIgnoreCase(authors.key(authorOf[ord]), q)) out.add(new BookView(ord));
+            }
+        } finally { rw.readLock().unlock(); }
+        return out;
+    }
+
+    private static boolean containsIgnoreCase(String s, String q) {
+        if (q.isEmpty()) return true;
+        char first = Character.toLowerCase(q.charAt(0));
+        for (int i = 0, last = s.length() - q.length(); i <= last; i++) {
+            if (Character.toLowerCase(s.charAt(i)) == first && s.regionMatches(true, i, q, 0, q.length())) return true;
+        }
+        return false;
+    }
+
+    // approximate bytes held by the columns and tables, not counting the id/title/author strings
+    public long columnBytes() {
+        rw.readLock().lock();
+        try {
+            return bookIds.bytes() + authors.bytes() + memberIds.bytes()
+                    + titles.length * 4L + authorOf.length * 4L + loanDay.length * 4L
+                    + loanMember.length() * 4L + available.length() * 8L + memberNames.length * 4L;
+        } finally { rw.readLock().unlock(); }
+    }
+}
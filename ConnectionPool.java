@@ -0,0 +1,134 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// fixed-size pool of SQLite connections. each connection keeps its own prepared statements,
+// so a statement is compiled once per connection instead of once per call.
+//
+// an in-memory database has a pool of one, so while that connection is leased (an open
+// SqlLibrary stream, say) every other call waits for it. a thread that already holds every
+// connection fails at once instead of waiting ACQUIRE_TIMEOUT_MS for itself.
+public class ConnectionPool implements AutoCloseable {
+    private static final long ACQUIRE_TIMEOUT_MS = 30_000;
+
+    private final BlockingQueue<PooledConnection> idle;
+    private final List<PooledConnection> all = new ArrayList<>();
+
+    public ConnectionPool(String url, int size) throws SQLException {
+        // every connection to an in-memory database gets its own empty database, so share one
+        if (url.contains(":memory:") || url.contains("mode=memory")) size = 1;
+        idle = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            PooledConnection c = new PooledConnection(DriverManager.getConnection(url));
+            configure(c.conn);
+            all.add(c);
+            idle.add(c);
+        }
+    }
+
+    // WAL lets readers run alongside the single writer; busy_timeout makes a writer from
+    // another process wait instead of failing; NORMAL is still crash-safe in WAL mode
+    private static void configure(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("PRAGMA journal_mode=WAL");
+            st.execute("PRAGMA busy_timeout=5000");
+            st.execute("PRAGMA synchronous=NORMAL");
+        }
+    }
+
+    public PooledConnection acquire() throws SQLException {
+        try {
+            PooledConnection c = idle.poll();
+            if (c == null) {
+                if (heldByCurrentThread()) throw new SQLException("all " + all.size() + " pooled connections are held by this thread; close its open streams first");
+                c = idle.poll(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
+            if (c == null) throw new SQLException("timed out waiting for a pooled connection");
+            c.lease();
+            return c;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted waiting for a pooled connection", e);
+        }
+    }
+
+    private boolean heldByCurrentThread() {
+        Thread me = Thread.currentThread();
+        for (PooledConnection c : all) if (c.owner != me) return false;
+        return true;
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    @Override
+    public void close() {
+        for (PooledConnection c : all) c.closePhysical();
+    }
+
+    public class PooledConnection implements AutoCloseable {
+        private final Connection conn;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        // true while leased; a second close() must not hand the connection out twice
+        private final AtomicBoolean leased = new AtomicBoolean();
+        private volatile Thread owner;
+
+        private PooledConnection(Connection conn) {
+            this.conn = conn;
+        }
+
+        public Connection connection() {
+            return conn;
+        }
+
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement ps = statements.get(sql);
+            if (ps == null) {
+                ps = conn.prepareStatement(sql);
+                statements.put(sql, ps);
+            } else {
+                ps.clearParameters();
+            }
+            return ps;
+        }
+
+        private void lease() {
+            leased.set(true);
+            owner = Thread.currentThread();
+        }
+
+        // hands the connection back to the pool, undoing any transaction left open. only the
+        // first close of a lease does anything
+        @Override
+        public void close() {
+            if (!leased.compareAndSet(true, false)) return;
+            owner = null;
+            try {
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) { e.printStackTrace(); }
+            idle.offer(this);
+        }
+
+        private void closePhysical() {
+            for (PreparedStatement ps : statements.values()) {
+                try { ps.close(); } catch (SQLException ignored) { }
+            }
+            statements.clear();
+            try { conn.close(); } catch (SQLException ignored) { }
+        }
+    }
+}
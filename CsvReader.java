@@ -0,0 +1,50 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+// minimal streaming CSV parser: one record per call, quoted fields with "" escapes and
+// embedded commas/newlines are supported. nothing beyond the current record is held in memory.
+public class CsvReader implements Closeable {
+    private final BufferedReader in;
+    private final StringBuilder field = new StringBuilder();
+
+    public CsvReader(Reader in) {
+        this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in, 1 << 16);
+    }
+
+    // next record, or null at end of input
+    public List<String> next() throws IOException {
+        String line = in.readLine();
+        if (line == null) return null;
+        List<String> out = new ArrayList<>(4);
+        field.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            for (int i = 0; i < line.length(); i++) {
+                char ch = line.charAt(i);
+                if (quoted) {
+                    if (ch == '"') {
+                        if (i + 1 < line.length() && line.charAt(i + 1) == '"') { field.append('"'); i++; }
+                        else quoted = false;
+                    } else field.append(ch);
+                } else if (ch == '"') quoted = true;
+                else if (ch == ',') { out.add(field.toString()); field.setLength(0); }
+                else field.append(ch);
+            }
+            if (!quoted) break;
+            line = in.readLine();
+            if (line == null) throw new IOException("unterminated quoted field");
+            field.append('\n');
+        }
+        out.add(field.toString());
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+// base for wrappers that add behaviour around another Library backend; forwards everything
+public class ForwardingLibrary extends Library {
+    protected final Library delegate;
+
+    public ForwardingLibrary(Library delegate) {
+        this.delegate = delegate;
+    }
+
+    public Library getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void addBook(Book book) {
+        delegate.addBook(book);
+    }
+
+    @Override
+    public void registerMember(Member member) {
+        delegate.registerMember(member);
+    }
+
+    @Override
+    public int addBooks(Iterable<Book> batch) {
+        return delegate.addBooks(batch);
+    }
+
+    @Override
+    public int registerMembers(Iterable<Member> batch) {
+        return delegate.registerMembers(batch);
+    }
+
+    // the backend emits the events; wrappers that change what readers see subscribe to it too
+    @Override
+    public void addLibraryListener(LibraryListener listener) {
+        delegate.addLibraryListener(listener);
+    }
+
+    @Override
+    public void removeLibraryListener(LibraryListener listener) {
+        delegate.removeLibraryListener(listener);
+    }
+
+    @Override
+    public boolean borrowBook(String bookId, String memberId) {
+        return delegate.borrowBook(bookId, memberId);
+    }
+
+    @Override
+    public boolean returnBook(String bookId) {
+        return delegate.returnBook(bookId);
+    }
+
+    @Override
+    public List<Book> listAvailableBooks() {
+        return delegate.listAvailableBooks();
+    }
+
+    @Override
+    public List<Book> listAllBooks() {
+        return delegate.listAllBooks();
+    }
+
+    @Override
+    public Stream<Book> streamBooks() {
+        return delegate.streamBooks();
+    }
+
+    @Override
+    public Stream<Book> streamAvailableBooks() {
+        return delegate.streamAvailableBooks();
+    }
+
+    @Override
+    public Stream<Loan> streamLoans() {
+        return delegate.streamLoans();
+    }
+
+    @Override
+    public Stream<Member> streamMembers() {
+        return delegate.streamMembers();
+    }
+
+    @Override
+    public List<Book> listBooksAfter(String afterId, int limit) {
+        return delegate.listBooksAfter(afterId, limit);
+    }
+
+    @Override
+    public List<Book> listBooksPage(int offset, int limit) {
+        return delegate.listBooksPage(offset, limit);
+    }
+
+    @Override
+    public List<Loan> listLoans() {
+        return delegate.listLoans();
+    }
+
+    @Override
+    public List<Loan> listLoansByMember(String memberId) {
+        return delegate.listLoansByMember(memberId);
+    }
+
+    @Override
+    public List<Loan> listLoansBorrowedBefore(LocalDate day) {
+        return delegate.listLoansBorrowedBefore(day);
+    }
+
+    @Override
+    public List<BookCount> topBorrowed(YearMonth from, YearMonth to, int n) {
+        return delegate.topBorrowed(from, to, n);
+    }
+
+    @Override
+    public Map<YearMonth, Long> circulationByMonth(YearMonth from, YearMonth to) {
+        return delegate.circulationByMonth(from, to);
+    }
+
+    @Override
+    public List<Book> search(String query, int limit) {
+        return delegate.search(query, limit);
+    }
+
+    @Override
+    public int countBooks() {
+        return delegate.countBooks();
+    }
+
+    @Override
+    public void exportBooks(BookRowSink sink) throws IOException {
+        delegate.exportBooks(sink);
+    }
+
+    @Override
+    public void exportLoans(LoanRowSink sink) throws IOException {
+        delegate.exportLoans(sink);
+    }
+
+    @Override
+    public List<String> loanPartitions(int parts) {
+        return delegate.loanPartitions(parts);
+    }
+
+    @Override
+    public void exportLoans(String fromKey, String toKey, LoanRowSink sink) throws IOException {
+        delegate.exportLoans(fromKey, toKey, sink);
+    }
+
+    @Override
+    public long catalogVersion() {
+        return delegate.catalogVersion();
+    }
+
+    @Override
+    public long errorCount() {
+        return delegate.errorCount();
+    }
+
+    @Override
+    public Optional<Book> findBook(String id) {
+        return delegate.findBook(id);
+    }
+
+    @Override
+    public boolean memberExists(String id) {
+        return delegate.memberExists(id);
+    }
+
+    @Override
+    public Optional<Member> findMember(String id) {
+        return delegate.findMember(id);
+    }
+}
@@ -0,0 +1,122 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+// single writer thread that applies queued write operations many at a time inside one
+// transaction, so a burst of borrows/returns pays for one commit instead of one each.
+// every operation runs under its own savepoint and gets its own result.
+public class GroupCommitQueue implements AutoCloseable {
+    public interface Op {
+        boolean apply(ConnectionPool.PooledConnection c) throws SQLException;
+    }
+
+    private static class Request {
+        final Op op;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        Request(Op op) {
+            this.op = op;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final Lock writeLock;
+    private final int maxBatch;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public GroupCommitQueue(ConnectionPool pool, Lock writeLock, int maxBatch) {
+        this.pool = pool;
+        this.writeLock = writeLock;
+        this.maxBatch = maxBatch;
+        writer = new Thread(this::run, "library-group-commit");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public CompletableFuture<Boolean> submit(Op op) {
+        Request r = new Request(op);
+        if (!running) {
+            r.result.completeExceptionally(new IllegalStateException("group commit queue is closed"));
+            return r.result;
+        }
+        queue.add(r);
+        // close() may have drained the queue between the check and the add; take it back if
+        // nobody else did (the writer completes it, close()'s drain fails it)
+        if (!running && queue.remove(r)) r.result.completeExceptionally(new IllegalStateException("group commit queue is closed"));
+        return r.result;
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            Request first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (first == null) continue;
+            batch.add(first);
+            queue.drainTo(batch, maxBatch - 1);
+            apply(batch);
+            batch.clear();
+        }
+    }
+
+    private void apply(List<Request> batch) {
+        boolean[] results = new boolean[batch.size()];
+        Exception[] errors = new Exception[batch.size()];
+        writeLock.lock();
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            Connection conn = c.connection();
+            conn.setAutoCommit(false);
+            for (int i = 0; i < batch.size(); i++) {
+                Savepoint sp = conn.setSavepoint();
+                try {
+                    results[i] = batch.get(i).op.apply(c);
+                    if (results[i]) conn.releaseSavepoint(sp);
+                    else conn.rollback(sp);
+                } catch (SQLException | RuntimeException e) {
+                    // a failing op, checked or not, fails only its own request
+                    conn.rollback(sp);
+                    errors[i] = e;
+                }
+            }
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            // the commit itself failed, nothing in this group was written; the writer carries on
+            for (Request r : batch) r.result.completeExceptionally(e);
+            return;
+        } finally {
+            writeLock.unlock();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (errors[i] != null) batch.get(i).result.completeExceptionally(errors[i]);
+            else batch.get(i).result.complete(results[i]);
+        }
+    }
+
+    // stops accepting work and waits for everything already queued to be written. a submit
+    // racing with close can still enqueue after the writer has gone; those requests are failed
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Request> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (Request r : left) r.result.completeExceptionally(new IllegalStateException("group commit queue is closed"));
+    }
+}
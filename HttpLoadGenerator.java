@@ -0,0 +1,123 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// closed-loop load generator for LibraryServer: each client thread sends a kiosk-like mix of
+// lookups, searches and borrow/return pairs back to back and records every request's latency.
+// without --url an in-process server over a seeded in-memory Library is started.
+//
+//   java HttpLoadGenerator --url http://localhost:8080 --clients 64 --seconds 10
+//   java HttpLoadGenerator --books 10000 --clients 64 --seconds 10
+public class HttpLoadGenerator {
+    private static final String[] WORDS = {"war", "peace", "night", "river", "garden", "king", "stone", "winter"};
+    private static final String[] AUTHORS = {"George Orwell", "Aldous Huxley", "J.R.R. Tolkien", "Jane Austen"};
+    private static final int MEMBERS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = LibraryBenchmark.parse(args);
+        int clients = Integer.parseInt(opt.getOrDefault("clients", "32"));
+        double seconds = Double.parseDouble(opt.getOrDefault("seconds", "10"));
+        int books = Integer.parseInt(opt.getOrDefault("books", "10000"));
+        LibraryServer local = null;
+        String url = opt.get("url");
+        if (url == null) {
+            Library lib = new Library(books, MEMBERS);
+            seed(lib, books);
+            local = new LibraryServer(lib, 0);
+            local.start();
+            url = "http://localhost:" + local.getPort();
+        }
+        try {
+            run(url, books, clients, seconds);
+        } finally {
+            if (local != null) local.close();
+        }
+    }
+
+    // books B0..B{n-1} and members M0..M999, matching what run() asks for
+    static void seed(Library lib, int books) {
+        List<Book> batch = new ArrayList<>(books);
+        for (int i = 0; i < books; i++) {
+            batch.add(new Book("B" + i, WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length] + " " + i, AUTHORS[i % AUTHORS.length]));
+        }
+        lib.addBooks(batch);
+        List<Member> members = new ArrayList<>(MEMBERS);
+        for (int i = 0; i < MEMBERS; i++) members.add(new Member("M" + i, "Member " + i));
+        lib.registerMembers(members);
+    }
+
+    static void run(String url, int books, int clients, double seconds) throws InterruptedException {
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(LibraryServer.requestExecutor())
+                .build();
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong failures = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+        long durationNs = (long) (seconds * 1e9);
+        for (int c = 0; c < clients; c++) {
+            Thread t = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                    long end = System.nanoTime() + durationNs;
+                    while (System.nanoTime() < end) {
+                        int pick = rnd.nextInt(100);
+                        String book = "B" + rnd.nextInt(books);
+                        if (pick < 50) {
+                            call(http, url + "/books/" + book, false, latency, failures);
+                        } else if (pick < 75) {
+                            call(http, url + "/books?q=" + WORDS[rnd.nextInt(WORDS.length)] + "+" + rnd.nextInt(10) + "&limit=20", false, latency, failures);
+                        } else if (pick < 85) {
+                            call(http, url + "/members/M" + rnd.nextInt(MEMBERS * 2), false, latency, failures);
+                        } else {
+                            // 409s are expected here: someone else may hold the book, and then it's
+                            // theirs to return
+                            int status = call(http, url + "/books/" + book + "/borrow?member=M" + rnd.nextInt(MEMBERS), true, latency, failures);
+                            if (status == 200) call(http, url + "/books/" + book + "/return", true, latency, failures);
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                } finally { done.countDown(); }
+            }, "load-" + c);
+            t.setDaemon(true);
+            t.start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        double elapsed = (System.nanoTime() - t0) / 1e9;
+        System.out.println(String.format(Locale.ROOT,
+                "%d clients, %.1f s: %d requests, %.0f req/s, p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms, %d failures",
+                clients, elapsed, latency.count(), latency.count() / elapsed, latency.percentile(50) / 1e6,
+                latency.percentile(99) / 1e6, latency.percentile(99.9) / 1e6, latency.max() / 1e6, failures.get()));
+    }
+
+    // the response status, -1 if the request failed outright
+    private static int call(HttpClient http, String uri, boolean post, LatencyHistogram latency, AtomicLong failures) {
+        HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(uri)).timeout(Duration.ofSeconds(30));
+        if (post) req.POST(HttpRequest.BodyPublishers.noBody());
+        long t0 = System.nanoTime();
+        try {
+            HttpResponse<byte[]> res = http.send(req.build(), HttpResponse.BodyHandlers.ofByteArray());
+            latency.record(System.nanoTime() - t0);
+            if (res.statusCode() >= 500) failures.incrementAndGet();
+            return res.statusCode();
+        } catch (Exception e) {
+            latency.record(System.nanoTime() - t0);
+            failures.incrementAndGet();
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+// records latency, throughput, SQL errors and rollbacks for every operation of the wrapped
+// backend. each operation is published as an MBean (library:type=Operation,backend=..,name=..)
+// and, if asked for, a summary is handed to a log every logSeconds. when the chain contains a SqlLibrary this
+// registers as its SqlListener, so errors it used to swallow are counted against the operation.
+//
+// stream methods are timed until the stream is opened, not until it is consumed.
+public class InstrumentedLibrary extends ForwardingLibrary implements AutoCloseable {
+
+    // JMX view of one operation; latencies in microseconds
+    public interface OperationStatsMBean {
+        long getCount();
+        double getThroughputPerSecond();
+        double getMeanMicros();
+        long getP50Micros();
+        long getP99Micros();
+        long getP999Micros();
+        long getMaxMicros();
+        long getSqlErrors();
+        long getRollbacks();
+        void reset();
+    }
+
+    public static class OperationStats implements OperationStatsMBean {
+        final String name;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder sqlErrors = new LongAdder();
+        final LongAdder rollbacks = new LongAdder();
+        // throughput is the call rate between the last two samples, taken once a second
+        private long lastCount;
+        private volatile double throughput;
+
+        OperationStats(String name) {
+            this.name = name;
+        }
+
+        void done(long t0) {
+            latency.record(System.nanoTime() - t0);
+        }
+
+        synchronized void sample(double seconds) {
+            long c = latency.count();
+            throughput = (c - lastCount) / seconds;
+            lastCount = c;
+        }
+
+        @Override public long getCount() { return latency.count(); }
+        @Override public double getThroughputPerSecond() { return throughput; }
+        @Override public double getMeanMicros() { return latency.mean() / 1000; }
+        @Override public long getP50Micros() { return latency.percentile(50) / 1000; }
+        @Override public long getP99Micros() { return latency.percentile(99) / 1000; }
+        @Override public long getP999Micros() { return latency.percentile(99.9) / 1000; }
+        @Override public long getMaxMicros() { return latency.max() / 1000; }
+        @Override public long getSqlErrors() { return sqlErrors.sum(); }
+        @Override public long getRollbacks() { return rollbacks.sum(); }
+
+        @Override
+        public synchronized void reset() {
+            latency.reset();
+            sqlErrors.reset();
+            rollbacks.reset();
+            lastCount = 0;
+        }
+    }
+
+    private final String backend;
+    private final Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+    private final List<ObjectName> registered = new ArrayList<>();
+    private final ScheduledExecutorService reporter;
+
+    private final OperationStats addBook = op("addBook");
+    private final OperationStats registerMember = op("registerMember");
+    private final OperationStats addBooks = op("addBooks");
+    private final OperationStats registerMembers = op("registerMembers");
+    private final OperationStats borrowBook = op("borrowBook");
+    private final OperationStats returnBook = op("returnBook");
+    private final OperationStats listAvailableBooks = op("listAvailableBooks");
+    private final OperationStats listAllBooks = op("listAllBooks");
+    private final OperationStats streamBooks = op("streamBooks");
+    private final OperationStats streamAvailableBooks = op("streamAvailableBooks");
+    private final OperationStats streamLoans = op("streamLoans");
+    private final OperationStats streamMembers = op("streamMembers");
+    private final OperationStats listBooksAfter = op("listBooksAfter");
+    private final OperationStats listBooksPage = op("listBooksPage");
+    private final OperationStats listLoans = op("listLoans");
+    private final OperationStats listLoansByMember = op("listLoansByMember");
+    private final OperationStats listLoansBorrowedBefore = op("listLoansBorrowedBefore");
+    private final OperationStats topBorrowed = op("topBorrowed");
+    private final OperationStats circulationByMonth = op("circulationByMonth");
+    private final OperationStats search = op("search");
+    private final OperationStats countBooks = op("countBooks");
+    private final OperationStats catalogVersion = op("catalogVersion");
+    private final OperationStats exportBooks = op("exportBooks");
+    private final OperationStats exportLoans = op("exportLoans");
+    private final OperationStats loanPartitions = op("loanPartitions");
+    private final OperationStats findBook = op("findBook");
+    private final OperationStats memberExists = op("memberExists");
+    private final OperationStats findMember = op("findMember");
+
+    public InstrumentedLibrary(Library delegate) {
+        this(delegate, 0, null);
+    }
+
+    // report() goes to log every logSeconds; logSeconds <= 0 or no log turns that off
+    public InstrumentedLibrary(Library delegate, long logSeconds, Consumer<String> log) {
+        super(delegate);
+        Library inner = delegate;
+        while (inner instanceof ForwardingLibrary) inner = ((ForwardingLibrary) inner).getDelegate();
+        this.backend = inner.getClass().getSimpleName();
+        if (inner instanceof SqlLibrary) {
+            ((SqlLibrary) inner).setSqlListener(new SqlLibrary.SqlListener() {
+                @Override
+                public void onError(String operation, SQLException e) {
+                    op(operation).sqlErrors.increment();
+                }
+
+                @Override
+                public void onRollback(String operation) {
+                    op(operation).rollbacks.increment();
+                }
+            });
+        }
+        for (OperationStats s : stats.values()) register(s);
+
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "library-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        long[] ticks = {0};
+        reporter.scheduleAtFixedRate(() -> {
+            for (OperationStats s : stats.values()) s.sample(1);
+            if (log != null && logSeconds > 0 && ++ticks[0] % logSeconds == 0) log.accept(report());
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // SqlLibrary reports helpers (queryLoans, stream) under their own names; they get stats on first use
+    private OperationStats op(String name) {
+        OperationStats s = stats.get(name);
+        if (s != null) return s;
+        OperationStats created = new OperationStats(name);
+        s = stats.putIfAbsent(name, created);
+        if (s != null) return s;
+        if (reporter != null) register(created);
+        return created;
+    }
+
+    private void register(OperationStats s) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("library:type=Operation,backend=" + backend + ",name=" + s.name);
+            if (server.isRegistered(name)) return;
+            server.registerMBean(new StandardMBean(s, OperationStatsMBean.class), name);
+            synchronized (registered) { registered.add(name); }
+        } catch (JMException e) { e.printStackTrace(); }
+    }
+
+    public Map<String, OperationStats> stats() {
+        return stats;
+    }
+
+    // one line per operation that has been called, slowest p99 first
+    public String report() {
+        List<OperationStats> used = new ArrayList<>();
+        for (OperationStats s : stats.values()) if (s.getCount() > 0 || s.getSqlErrors() > 0) used.add(s);
+        used.sort((a, b) -> Long.compare(b.latency.percentile(99), a.latency.percentile(99)));
+        StringBuilder sb = new StringBuilder("library metrics (" + backend + ")\n");
+        for (OperationStats s : used) {
+            sb.append(String.format(Locale.ROOT, "  %-24s count=%d rate=%.1f/s mean=%.1fus p50=%dus p99=%dus p99.9=%dus max=%dus errors=%d rollbacks=%d%n",
+                    s.name, s.getCount(), s.getThroughputPerSecond(), s.getMeanMicros(), s.getP50Micros(),
+                    s.getP99Micros(), s.getP999Micros(), s.getMaxMicros(), s.getSqlErrors(), s.getRollbacks()));
+        }
+        return sb.toString();
+    }
+
+    // short form for a status bar
+    public String summary() {
+        double rate = 0;
+        long errors = 0, rollbacks = 0;
+        for (OperationStats s : stats.values()) {
+            rate += s.getThroughputPerSecond();
+            errors += s.getSqlErrors();
+            rollbacks += s.getRollbacks();
+        }
+        return String.format(Locale.ROOT, "%.0f ops/s | borrow p99 %s | find p99 %s | errors %d | rollbacks %d",
+                rate, micros(borrowBook.latency.percentile(99)), micros(findBook.latency.percentile(99)), errors, rollbacks);
+    }
+
+    private static String micros(long nanos) {
+        if (nanos >= 1_000_000) return String.format(Locale.ROOT, "%.1f ms", nanos / 1e6);
+        return (nanos / 1000) + " us";
+    }
+
+    @Override
+    public void close() throws IOException {
+        reporter.shutdownNow();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (registered) {
+            for (ObjectName name : registered) {
+                try {
+                    server.unregisterMBean(name);
+                } catch (JMException ignored) {}
+            }
+            registered.clear();
+        }
+        if (delegate instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) delegate).close();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("closing " + backend + " failed", e);
+            }
+        }
+    }
+
+    @Override
+    public void addBook(Book book) {
+        long t0 = System.nanoTime();
+        try { delegate.addBook(book); } finally { addBook.done(t0); }
+    }
+
+    @Override
+    public void registerMember(Member member) {
+        long t0 = System.nanoTime();
+        try { delegate.registerMember(member); } finally { registerMember.done(t0); }
+    }
+
+    @Override
+    public int addBooks(Iterable<Book> batch) {
+        long t0 = System.nanoTime();
+        try { return delegate.addBooks(batch); } finally { addBooks.done(t0); }
+    }
+
+    @Override
+    public int registerMembers(Iterable<Member> batch) {
+        long t0 = System.nanoTime();
+        try { return delegate.registerMembers(batch); } finally { registerMembers.done(t0); }
+    }
+
+    @Override
+    public boolean borrowBook(String bookId, String memberId) {
+        long t0 = System.nanoTime();
+        try { return delegate.borrowBook(bookId, memberId); } finally { borrowBook.done(t0); }
+    }
+
+    @Override
+    public boolean returnBook(String bookId) {
+        long t0 = System.nanoTime();
+        try { return delegate.returnBook(bookId); } finally { returnBook.done(t0); }
+    }
+
+    @Override
+    public List<Book> listAvailableBooks() {
+        long t0 = System.nanoTime();
+        try { return delegate.listAvailableBooks(); } finally { listAvailableBooks.done(t0); }
+    }
+
+    @Override
+    public List<Book> listAllBooks() {
+        long t0 = System.nanoTime();
+        try { return delegate.listAllBooks(); } finally { listAllBooks.done(t0); }
+    }
+
+    @Override
+    public Stream<Book> streamBooks() {
+        long t0 = System.nanoTime();
+        try { return delegate.streamBooks(); } finally { streamBooks.done(t0); }
+    }
+
+    @Override
+    public Stream<Book> streamAvailableBooks() {
+        long t0 = System.nanoTime();
+        try { return delegate.streamAvailableBooks(); } finally { streamAvailableBooks.done(t0); }
+    }
+
+    @Override
+    public Stream<Loan> streamLoans() {
+        long t0 = System.nanoTime();
+        try { return delegate.streamLoans(); } finally { streamLoans.done(t0); }
+    }
+
+    @Override
+    public Stream<Member> streamMembers() {
+        long t0 = System.nanoTime();
+        try { return delegate.streamMembers(); } finally { streamMembers.done(t0); }
+    }
+
+    @Override
+    public List<Book> listBooksAfter(String afterId, int limit) {
+        long t0 = System.nanoTime();
+        try { return delegate.listBooksAfter(afterId, limit); } finally { listBooksAfter.done(t0); }
+    }
+
+    @Override
+    public List<Book> listBooksPage(int offset, int limit) {
+        long t0 = System.nanoTime();
+        try { return delegate.listBooksPage(offset, limit); } finally { listBooksPage.done(t0); }
+    }
+
+    @Override
+    public List<Loan> listLoans() {
+        long t0 = System.nanoTime();
+        try { return delegate.listLoans(); } finally { listLoans.done(t0); }
+    }
+
+    @Override
+    public List<Loan> listLoansByMember(String memberId) {
+        long t0 = System.nanoTime();
+        try { return delegate.listLoansByMember(memberId); } finally { listLoansByMember.done(t0); }
+    }
+
+    @Override
+    public List<Loan> listLoansBorrowedBefore(LocalDate day) {
+        long t0 = System.nanoTime();
+        try { return delegate.listLoansBorrowedBefore(day); } finally { listLoansBorrowedBefore.done(t0); }
+    }
+
+    @Override
+    public List<BookCount> topBorrowed(YearMonth from, YearMonth to, int n) {
+        long t0 = System.nanoTime();
+        try { return delegate.topBorrowed(from, to, n); } finally { topBorrowed.done(t0); }
+    }
+
+    @Override
+    public Map<YearMonth, Long> circulationByMonth(YearMonth from, YearMonth to) {
+        long t0 = System.nanoTime();
+        try { return delegate.circulationByMonth(from, to); } finally { circulationByMonth.done(t0); }
+    }
+
+    @Override
+    public List<Book> search(String query, int limit) {
+        long t0 = System.nanoTime();
+        try { return delegate.search(query, limit); } finally { search.done(t0); }
+    }
+
+    @Override
+    public int countBooks() {
+        long t0 = System.nanoTime();
+        try { return delegate.countBooks(); } finally { countBooks.done(t0); }
+    }
+
+    @Override
+    public void exportBooks(BookRowSink sink) throws IOException {
+        long t0 = System.nanoTime();
+        try { delegate.exportBooks(sink); } finally { exportBooks.done(t0); }
+    }
+
+    @Override
+    public void exportLoans(LoanRowSink sink) throws IOException {
+        long t0 = System.nanoTime();
+        try { delegate.exportLoans(sink); } finally { exportLoans.done(t0); }
+    }
+
+    @Override
+    public List<String> loanPartitions(int parts) {
+        long t0 = System.nanoTime();
+        try { return delegate.loanPartitions(parts); } finally { loanPartitions.done(t0); }
+    }
+
+    @Override
+    public void exportLoans(String fromKey, String toKey, LoanRowSink sink) throws IOException {
+        long t0 = System.nanoTime();
+        try { delegate.exportLoans(fromKey, toKey, sink); } finally { exportLoans.done(t0); }
+    }
+
+    @Override
+    public long catalogVersion() {
+        long t0 = System.nanoTime();
+        try { return delegate.catalogVersion(); } finally { catalogVersion.done(t0); }
+    }
+
+    @Override
+    public Optional<Book> findBook(String id) {
+        long t0 = System.nanoTime();
+        try { return delegate.findBook(id); } finally { findBook.done(t0); }
+    }
+
+    @Override
+    public boolean memberExists(String id) {
+        long t0 = System.nanoTime();
+        try { return delegate.memberExists(id); } finally { memberExists.done(t0); }
+    }
+
+    @Override
+    public Optional<Member> findMember(String id) {
+        long t0 = System.nanoTime();
+        try { return delegate.findMember(id); } finally { findMember.done(t0); }
+    }
+}
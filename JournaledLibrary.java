@@ -0,0 +1,533 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// durable in-memory Library. every successful mutation is appended to a binary journal
+// (journal.bin) and the journal is fsynced in batches every syncMillis by a background thread.
+// once the journal holds snapshotEvery records the whole state is written to snapshot.bin and
+// the journal starts over, so a restart loads one snapshot plus a short journal tail.
+//
+// journal: int magic, int version, then per record int length, int crc32 of the payload,
+// payload (long sequence number + type byte + fields). a torn record at the tail (crash
+// mid-write) fails its length or crc check and is cut off. the snapshot header carries the
+// sequence number of the last record it contains, and replay skips records up to it, so a
+// crash after a new snapshot is in place but before the journal is emptied replays nothing twice.
+// strings in both files are an int byte length (-1 for null) and UTF-8, so no field is too long.
+//
+// a record is encoded before its change is applied, so a change that can't be encoded is
+// refused on its own. a mutation whose record can't be written throws UncheckedIOException,
+// and since memory is then ahead of the disk every later mutation throws too; reads carry on.
+public class JournaledLibrary extends ForwardingLibrary implements AutoCloseable {
+    private static final byte ADD_BOOK = 1, MEMBER = 2, BORROW = 3, RETURN = 4;
+    private static final int SNAPSHOT_MAGIC = 0x4c494253; // "LIBS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int JOURNAL_MAGIC = 0x4c49424a; // "LIBJ"
+    private static final int JOURNAL_VERSION = 1;
+    private static final int JOURNAL_HEADER = 8;
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final long snapshotEvery;
+    private FileChannel journal;
+    // mutations are applied and journaled under one lock so the journal order is the apply order
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final DataOutputStream out = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private long journaled;
+    // sequence number of the last record appended, or contained in the snapshot loaded
+    private long seq;
+    private long snapshotSeq;
+    // set once the journal couldn't be written; mutations are refused from then on
+    private volatile IOException failed;
+    private final Thread syncer;
+    private volatile boolean running = true;
+
+    public static JournaledLibrary open(Path dir) throws IOException {
+        return new JournaledLibrary(dir, 10, 1_000_000);
+    }
+
+    public JournaledLibrary(Path dir, long syncMillis, long snapshotEvery) throws IOException {
+        this(dir, syncMillis, snapshotEvery, System.nanoTime(), SnapshotIn.open(dir.resolve("snapshot.bin")));
+    }
+
+    // the snapshot's catalog is read before the delegate exists, so the delegate's book map is
+    // built from it in one pass; members, loans and history follow once the delegate is there
+    private JournaledLibrary(Path dir, long syncMillis, long snapshotEvery, long t0, SnapshotIn snapshot) throws IOException {
+        super(snapshot == null ? new Library() : new Library(snapshot.books, 16));
+        this.snapshotFile = dir.resolve("snapshot.bin");
+        this.journalFile = dir.resolve("journal.bin");
+        this.snapshotEvery = snapshotEvery;
+        boolean restored = snapshot != null;
+        try {
+            Files.createDirectories(dir);
+            if (restored) loadSnapshot(snapshot);
+        } finally {
+            if (restored) snapshot.close();
+        }
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (journal.size() < JOURNAL_HEADER) {
+            // new, or cut off while a snapshot was starting it over
+            journal.truncate(0);
+            writeJournalHeader();
+        } else {
+            checkJournalHeader();
+        }
+        journaled = replayJournal();
+        if (restored) delegate.indexLoadedBooks();
+        System.out.printf("JournaledLibrary: recovered %d books, %d journal records in %d ms%n",
+                delegate.countBooks(), journaled, (System.nanoTime() - t0) / 1_000_000);
+        syncer = new Thread(() -> syncLoop(syncMillis), "library-journal-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    @Override
+    public void addBook(Book book) {
+        lock.lock();
+        try {
+            checkWritable();
+            encode(ADD_BOOK, book.getId(), book.getTitle(), book.getAuthor(), book.isAvailable() ? "1" : "0");
+            delegate.addBook(book);
+            append();
+        } finally { lock.unlock(); }
+    }
+
+    @Override
+    public int addBooks(Iterable<Book> batch) {
+        int n = 0;
+        for (Book b : batch) { addBook(b); n++; }
+        return n;
+    }
+
+    @Override
+    public void registerMember(Member member) {
+        lock.lock();
+        try {
+            checkWritable();
+            encode(MEMBER, member.getId(), member.getName());
+            delegate.registerMember(member);
+            append();
+        } finally { lock.unlock(); }
+    }
+
+    @Override
+    public int registerMembers(Iterable<Member> batch) {
+        int n = 0;
+        for (Member m : batch) { registerMember(m); n++; }
+        return n;
+    }
+
+    @Override
+    public boolean borrowBook(String bookId, String memberId) {
+        LocalDate today = LocalDate.now();
+        lock.lock();
+        try {
+            checkWritable();
+            encode(BORROW, bookId, memberId, today.toString());
+            if (!delegate.borrowBook(bookId, memberId, today)) return false;
+            append();
+            return true;
+        } finally { lock.unlock(); }
+    }
+
+    @Override
+    public boolean returnBook(String bookId) {
+        LocalDate today = LocalDate.now();
+        lock.lock();
+        try {
+            checkWritable();
+            encode(RETURN, bookId, today.toString());
+            if (!delegate.returnBook(bookId, today)) return false;
+            append();
+            return true;
+        } finally { lock.unlock(); }
+    }
+
+    // caller holds lock. encodes the next record into record, before the change is applied:
+    // failing here refuses this change only
+    private void encode(byte type, String... fields) {
+        try {
+            record.reset();
+            out.writeLong(seq + 1);
+            out.writeByte(type);
+            for (String f : fields) writeString(out, f);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("journal record could not be encoded", e);
+        }
+    }
+
+    // caller holds lock. writes the record encode() left in record. the change has already been
+    // applied in memory, so a record that can't be written leaves the library refusing every
+    // later mutation
+    private void append() {
+        try {
+            byte[] bytes = record.toByteArray();
+            crc.reset();
+            crc.update(bytes, 0, bytes.length);
+            if (buffer.remaining() < bytes.length + 8) drain();
+            if (buffer.remaining() < bytes.length + 8) {
+                // larger than the whole buffer: straight to the file
+                ByteBuffer big = ByteBuffer.allocate(bytes.length + 8);
+                big.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+                while (big.hasRemaining()) journal.write(big);
+            } else {
+                buffer.putInt(bytes.length);
+                buffer.putInt((int) crc.getValue());
+                buffer.put(bytes);
+            }
+            seq++;
+            journaled++;
+        } catch (IOException e) {
+            failed = e;
+            throw new UncheckedIOException("journal write failed; the library no longer accepts changes", e);
+        }
+    }
+
+    // caller holds lock
+    private void checkWritable() {
+        IOException e = failed;
+        if (e != null) throw new UncheckedIOException("journal write failed earlier; the library no longer accepts changes", e);
+    }
+
+    // caller holds lock
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) journal.write(buffer);
+        buffer.clear();
+    }
+
+    // writes out buffered records and fsyncs; returns once everything journaled so far is durable
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            drain();
+            journal.force(false);
+        } catch (IOException e) {
+            failed = e;
+            throw e;
+        } finally { lock.unlock(); }
+    }
+
+    private void syncLoop(long syncMillis) {
+        while (running) {
+            try {
+                Thread.sleep(syncMillis);
+                sync();
+                if (journaled >= snapshotEvery) snapshot();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            }
+        }
+    }
+
+    // writes the full state to a new snapshot and empties the journal. writes wait while it runs
+    public void snapshot() throws IOException {
+        lock.lock();
+        try {
+            Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            try (DataOutputStream s = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                writeSnapshot(s);
+            }
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // from here a crash is safe: the snapshot's sequence number covers the whole journal
+            snapshotSeq = seq;
+            buffer.clear();
+            journal.truncate(0);
+            journal.position(0);
+            writeJournalHeader();
+            journal.force(true);
+            journaled = 0;
+        } finally { lock.unlock(); }
+    }
+
+    private void writeSnapshot(DataOutputStream s) throws IOException {
+        s.writeInt(SNAPSHOT_MAGIC);
+        s.writeInt(SNAPSHOT_VERSION);
+        s.writeLong(seq);
+        List<Loan> loans = delegate.listLoans();
+        Set<String> onLoan = new HashSet<>(loans.size() * 2);
+        for (Loan l : loans) onLoan.add(l.getBook().getId());
+
+        s.writeInt(delegate.countBooks());
+        try (Stream<Book> books = delegate.streamBooks()) {
+            for (Book b : (Iterable<Book>) books::iterator) {
+                writeString(s, b.getId());
+                writeString(s, b.getTitle());
+                writeString(s, b.getAuthor());
+                // books on loan are stored available; restoring the loan checks them out again
+                s.writeBoolean(b.isAvailable() || onLoan.contains(b.getId()));
+            }
+        }
+        List<Member> members = new ArrayList<>();
+        try (Stream<Member> m = delegate.streamMembers()) { m.forEach(members::add); }
+        s.writeInt(members.size());
+        for (Member m : members) {
+            writeString(s, m.getId());
+            writeString(s, m.getName());
+        }
+        s.writeInt(loans.size());
+        for (Loan l : loans) {
+            writeString(s, l.getBook().getId());
+            writeString(s, l.getMember().getId());
+            s.writeInt((int) l.getBorrowDate().toEpochDay());
+        }
+        LoanHistory history = delegate.getHistory();
+        s.writeLong(history.size());
+        IOException[] failed = new IOException[1];
+        history.forEach((bookId, memberId, borrowDay, returnDay) -> {
+            if (failed[0] != null) return;
+            try {
+                writeString(s, bookId);
+                writeString(s, memberId);
+                s.writeInt(borrowDay);
+                s.writeInt(returnDay);
+            } catch (IOException e) { failed[0] = e; }
+        });
+        if (failed[0] != null) throw failed[0];
+    }
+
+    // the rest of the snapshot after its catalog, which SnapshotIn.open has read
+    private void loadSnapshot(SnapshotIn s) throws IOException {
+        try {
+            snapshotSeq = seq = s.seq;
+            int members = s.readInt();
+            for (int i = 0; i < members; i++) delegate.registerMember(new Member(s.readString(), s.readString()));
+            int loans = s.readInt();
+            for (int i = 0; i < loans; i++) delegate.borrowBook(s.readString(), s.readString(), LocalDate.ofEpochDay(s.readInt()));
+            long history = s.readLong();
+            LoanHistory h = delegate.getHistory();
+            for (long i = 0; i < history; i++) h.append(s.readString(), s.readString(), s.readInt(), s.readInt());
+        } catch (EOFException e) {
+            throw new IOException("truncated snapshot: " + s.file, e);
+        }
+    }
+
+    private void writeJournalHeader() throws IOException {
+        ByteBuffer h = ByteBuffer.allocate(JOURNAL_HEADER);
+        h.putInt(JOURNAL_MAGIC).putInt(JOURNAL_VERSION).flip();
+        while (h.hasRemaining()) journal.write(h);
+    }
+
+    private void checkJournalHeader() throws IOException {
+        ByteBuffer h = ByteBuffer.allocate(JOURNAL_HEADER);
+        while (h.hasRemaining() && journal.read(h, h.position()) > 0) { }
+        h.flip();
+        if (h.remaining() < JOURNAL_HEADER || h.getInt() != JOURNAL_MAGIC) throw new IOException("not a library journal: " + journalFile);
+        int version = h.getInt();
+        if (version != JOURNAL_VERSION) throw new IOException("unsupported journal version " + version + ": " + journalFile);
+    }
+
+    // applies every intact record newer than the snapshot and cuts the file after the last one;
+    // returns the number of records in the journal
+    private long replayJournal() throws IOException {
+        long size = journal.size();
+        if (size <= JOURNAL_HEADER) {
+            journal.position(size);
+            return 0;
+        }
+        MappedByteBuffer map = journal.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        map.position(JOURNAL_HEADER);
+        long count = 0;
+        int good = JOURNAL_HEADER;
+        byte[] payload = new byte[256];
+        while (map.remaining() >= 8) {
+            int len = map.getInt();
+            int sum = map.getInt();
+            if (len <= 0 || len > map.remaining()) break;
+            if (payload.length < len) payload = new byte[len];
+            map.get(payload, 0, len);
+            crc.reset();
+            crc.update(payload, 0, len);
+            if ((int) crc.getValue() != sum) break;
+            DataInputStream r = new DataInputStream(new ByteArrayInputStream(payload, 0, len));
+            long s = r.readLong();
+            // already in the snapshot
+            if (s > snapshotSeq) apply(r);
+            seq = Math.max(seq, s);
+            good = map.position();
+            count++;
+        }
+        if (good < size) {
+            System.err.println("JournaledLibrary: discarding " + (size - good) + " bytes of incomplete journal tail");
+            journal.truncate(good);
+        }
+        journal.position(good);
+        return count;
+    }
+
+    private void apply(DataInputStream r) throws IOException {
+        byte type = r.readByte();
+        switch (type) {
+            case ADD_BOOK: {
+                Book b = new Book(readString(r), readString(r), readString(r));
+                b.setAvailable("1".equals(readString(r)));
+                delegate.addBook(b);
+                break;
+            }
+            case MEMBER:
+                delegate.registerMember(new Member(readString(r), readString(r)));
+                break;
+            case BORROW:
+                delegate.borrowBook(readString(r), readString(r), LocalDate.parse(readString(r)));
+                break;
+            case RETURN:
+                delegate.returnBook(readString(r), LocalDate.parse(readString(r)));
+                break;
+            default:
+                throw new IOException("unknown journal record type " + type);
+        }
+    }
+
+    // the snapshot is read in large blocks straight off the channel, and strings are decoded
+    // from the block in place: no stream layers and no copy per field. books are written in id
+    // order, so the catalog read here can build the delegate's map in one pass
+    private static final class SnapshotIn implements AutoCloseable {
+        final Path file;
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+        long seq;
+        List<Book> books;
+
+        private SnapshotIn(Path file, FileChannel ch) {
+            this.file = file;
+            this.ch = ch;
+            buf.flip();
+        }
+
+        // null if there is no snapshot; otherwise positioned after the catalog
+        static SnapshotIn open(Path file) throws IOException {
+            if (!Files.exists(file)) return null;
+            SnapshotIn s = new SnapshotIn(file, FileChannel.open(file, StandardOpenOption.READ));
+            try {
+                if (s.readInt() != SNAPSHOT_MAGIC) throw new IOException("not a library snapshot: " + file);
+                int version = s.readInt();
+                if (version != SNAPSHOT_VERSION) throw new IOException("unsupported snapshot version " + version + ": " + file);
+                s.seq = s.readLong();
+                int n = s.readInt();
+                if (n < 0) throw new IOException("corrupt snapshot, " + n + " books: " + file);
+                s.books = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    Book b = new Book(s.readString(), s.readString(), s.readString());
+                    b.setAvailable(s.readBoolean());
+                    s.books.add(b);
+                }
+                return s;
+            } catch (IOException | RuntimeException e) {
+                s.close();
+                if (e instanceof EOFException) throw new IOException("truncated snapshot: " + file, e);
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            ch.close();
+        }
+
+        // at least n bytes buffered, n up to the buffer's capacity
+        private void need(int n) throws IOException {
+            if (buf.remaining() >= n) return;
+            buf.compact();
+            while (buf.position() < n) {
+                if (ch.read(buf) < 0) throw new EOFException();
+            }
+            buf.flip();
+        }
+
+        int readInt() throws IOException {
+            need(4);
+            return buf.getInt();
+        }
+
+        long readLong() throws IOException {
+            need(8);
+            return buf.getLong();
+        }
+
+        boolean readBoolean() throws IOException {
+            need(1);
+            return buf.get() != 0;
+        }
+
+        String readString() throws IOException {
+            int n = readInt();
+            if (n < 0) return null;
+            if (n > buf.capacity()) {
+                byte[] b = new byte[n];
+                int head = buf.remaining();
+                buf.get(b, 0, head);
+                ByteBuffer rest = ByteBuffer.wrap(b, head, n - head);
+                while (rest.hasRemaining()) {
+                    if (ch.read(rest) < 0) throw new EOFException();
+                }
+                return new String(b, StandardCharsets.UTF_8);
+            }
+            need(n);
+            String s = new String(buf.array(), buf.position(), n, StandardCharsets.UTF_8);
+            buf.position(buf.position() + n);
+            return s;
+        }
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) return null;
+        byte[] b = new byte[n];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // no interrupt: interrupting a thread inside FileChannel I/O closes the channel
+        running = false;
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sync();
+        journal.close();
+    }
+}
@@ -1,44 +1,180 @@
+import java.io.IOException;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+// safe for concurrent use: circulation never takes a global lock and availability is flipped
+// per book with a CAS. a borrow fills the member and date indexes before it publishes the loan
+// in the loan map, and a return can only take a loan from that map, so a return racing the
+// borrow either misses the loan or finds its index entries in place
 public class Library {
-    private final Map<String, Book> books = new HashMap<>();
-    private final Map<String, Member> members = new HashMap<>();
-    private final Map<String, Loan> loans = new HashMap<>();
+    private final NavigableMap<String, Book> books;
+    private final Map<String, Member> members;
+    private final Map<String, Loan> loans;
+    // secondary indexes over active loans: book ids per member, and loans ordered by
+    // "borrowDate|bookId" (ISO dates sort as strings) for range queries on age
+    private final Map<String, Set<String>> loansByMember;
+    private final NavigableMap<String, Loan> loansByDate = new ConcurrentSkipListMap<>();
+    private final SearchIndex index;
+    private final LoanHistory history = new LoanHistory();
+    protected final LibraryEvents events = new LibraryEvents();
+
+    public Library() {
+        this(16, 16);
+    }
+
+    // presized for bulk loads so the hash maps don't rehash their way up to millions of entries
+    public Library(int expectedBooks, int expectedMembers) {
+        this(new ConcurrentSkipListMap<>(), expectedBooks, expectedMembers);
+    }
+
+    // restore of a persisted catalog, books in id order: the map is built in one linear pass
+    // rather than a million ordered inserts, and searches scan the books until
+    // indexLoadedBooks() is called once the rest of the restore is done. the index is then built
+    // in the background, so neither the restore nor the restart waits for indexing
+    protected Library(List<Book> sortedById, int expectedMembers) {
+        this(new ConcurrentSkipListMap<>(byId(sortedById)), sortedById.size(), expectedMembers);
+        index.deferRebuild(books.values());
+    }
+
+    private Library(NavigableMap<String, Book> books, int expectedBooks, int expectedMembers) {
+        this.books = books;
+        members = new ConcurrentHashMap<>(expectedMembers);
+        loans = new ConcurrentHashMap<>(expectedBooks / 4 + 16);
+        loansByMember = new ConcurrentHashMap<>(expectedMembers);
+        index = new SearchIndex(expectedBooks);
+    }
 
     public void addBook(Book book) {
         books.put(book.getId(), book);
+        index.add(book);
+        events.bookAdded(book.getId(), book.isAvailable());
+    }
+
+    // throws IllegalArgumentException unless the ids are strictly ascending
+    private static SortedArrayMap<String, Book> byId(List<Book> sortedById) {
+        String[] ids = new String[sortedById.size()];
+        Book[] all = sortedById.toArray(new Book[0]);
+        for (int i = 0; i < all.length; i++) ids[i] = all[i].getId();
+        return new SortedArrayMap<>(ids, all);
+    }
+
+    protected void indexLoadedBooks() {
+        index.rebuildInBackground(books.values());
     }
 
     public void registerMember(Member member) {
         members.put(member.getId(), member);
+        events.memberRegistered(member.getId());
+    }
+
+    // listeners are told about added books, availability changes and new members, in batches
+    public void addLibraryListener(LibraryListener listener) {
+        events.addListener(listener);
+    }
+
+    public void removeLibraryListener(LibraryListener listener) {
+        events.removeListener(listener);
+    }
+
+    // bulk variants; return the number of records stored
+    public int addBooks(Iterable<Book> batch) {
+        int n = 0;
+        for (Book b : batch) { addBook(b); n++; }
+        return n;
+    }
+
+    public int registerMembers(Iterable<Member> batch) {
+        int n = 0;
+        for (Member m : batch) { registerMember(m); n++; }
+        return n;
     }
 
     public boolean borrowBook(String bookId, String memberId) {
+        return borrowBook(bookId, memberId, LocalDate.now());
+    }
+
+    public boolean returnBook(String bookId) {
+        return returnBook(bookId, LocalDate.now());
+    }
+
+    // dated variants, used when replaying persisted history (JournaledLibrary)
+    protected boolean borrowBook(String bookId, String memberId, LocalDate day) {
         Book book = books.get(bookId);
         Member member = members.get(memberId);
         if (book == null || member == null) return false;
-        if (!book.isAvailable()) return false;
-        Loan loan = new Loan(book, member);
-        book.setAvailable(false);
+        if (!book.tryCheckOut()) return false;
+        Loan loan = new Loan(book, member, day, null);
+        // compute, not computeIfAbsent + add: a return dropping the member's emptied set must
+        // not race with this add
+        loansByMember.compute(memberId, (k, held) -> {
+            if (held == null) held = ConcurrentHashMap.newKeySet();
+            held.add(bookId);
+            return held;
+        });
+        loansByDate.put(dateKey(loan), loan);
+        // published last: from here on a return can take it, and will find both index entries
         loans.put(bookId, loan);
+        events.availabilityChanged(bookId, false);
         return true;
     }
 
-    public boolean returnBook(String bookId) {
-        Loan loan = loans.get(bookId);
+    protected boolean returnBook(String bookId, LocalDate day) {
+        Loan loan = loans.remove(bookId);
         if (loan == null) return false;
-        loan.setReturnDate(LocalDate.now());
-        Book book = loan.getBook();
-        book.setAvailable(true);
-        loans.remove(bookId);
+        loansByDate.remove(dateKey(loan));
+        // a member's set goes once it empties, so members who once borrowed don't pin one forever
+        loansByMember.computeIfPresent(loan.getMember().getId(), (k, held) -> {
+            held.remove(bookId);
+            return held.isEmpty() ? null : held;
+        });
+        loan.setReturnDate(day);
+        loan.getBook().setAvailable(true);
+        history.append(loan);
+        events.availabilityChanged(bookId, true);
         return true;
     }
 
+    protected LoanHistory getHistory() {
+        return history;
+    }
+
+    public Stream<Member> streamMembers() {
+        return members.values().stream();
+    }
+
+    private static String dateKey(Loan loan) {
+        return loan.getBorrowDate() + "|" + loan.getBook().getId();
+    }
+
+    // active loans of one member. the index only names books; by the time one is looked up it
+    // may be out again with someone else, so the loan's member is checked
+    public List<Loan> listLoansByMember(String memberId) {
+        List<Loan> out = new ArrayList<>();
+        Set<String> held = loansByMember.get(memberId);
+        if (held == null) return out;
+        for (String bookId : held) {
+            Loan l = loans.get(bookId);
+            if (l != null && l.getMember().getId().equals(memberId)) out.add(l);
+        }
+        return out;
+    }
+
+    // active loans borrowed strictly before the given day, oldest first
+    public List<Loan> listLoansBorrowedBefore(LocalDate day) {
+        return new ArrayList<>(loansByDate.headMap(day.toString(), false).values());
+    }
+
     public List<Book> listAvailableBooks() {
         List<Book> out = new ArrayList<>();
         for (Book b : books.values()) if (b.isAvailable()) out.add(b);
@@ -49,10 +185,130 @@ public class Library {
         return new ArrayList<>(books.values());
     }
 
+    // streaming variants: live views over the maps, nothing is copied. backends that hold
+    // resources while streaming (SqlLibrary) release them when the stream is closed, so use
+    // these in try-with-resources or go through forEachBook/forEachLoan
+    public Stream<Book> streamBooks() {
+        return books.values().stream();
+    }
+
+    public Stream<Book> streamAvailableBooks() {
+        return books.values().stream().filter(Book::isAvailable);
+    }
+
+    public Stream<Loan> streamLoans() {
+        return loans.values().stream();
+    }
+
+    // export hooks (CatalogExporter): every book / active loan is handed to the sink as plain
+    // fields, without copying rows into new objects. like the streams, not a point-in-time view
+    public void exportBooks(BookRowSink sink) throws IOException {
+        for (Book b : books.values()) sink.book(b.getId(), b.getTitle(), b.getAuthor(), b.isAvailable());
+    }
+
+    public void exportLoans(LoanRowSink sink) throws IOException {
+        for (Loan l : loans.values()) {
+            Book b = l.getBook();
+            Member m = l.getMember();
+            sink.loan(b.getId(), b.getTitle(), b.getAuthor(), m.getId(), m.getName(), l.getBorrowDate());
+        }
+    }
+
+    // batch jobs (OverdueJob) split the active loans into ranges of an ordered partition key and
+    // work on the ranges in parallel. the key is up to the backend: here it is the borrow date +
+    // book id of loansByDate, so ranges are also age ranges. returns at most parts - 1 ascending
+    // split keys; range i is [split i-1, split i), with null for an open end
+    public List<String> loanPartitions(int parts) {
+        int n = loans.size();
+        List<String> splits = new ArrayList<>(Math.max(0, parts - 1));
+        if (parts <= 1 || n == 0) return splits;
+        long step = Math.max(1, n / parts), i = 0;
+        for (String key : loansByDate.keySet()) {
+            if (++i % step == 0 && splits.size() < parts - 1) splits.add(key);
+        }
+        return splits;
+    }
+
+    // active loans whose partition key is in [fromKey, toKey); null bounds are open
+    public void exportLoans(String fromKey, String toKey, LoanRowSink sink) throws IOException {
+        NavigableMap<String, Loan> range = loansByDate;
+        if (fromKey != null) range = range.tailMap(fromKey, true);
+        if (toKey != null) range = range.headMap(toKey, false);
+        for (Loan l : range.values()) {
+            Book b = l.getBook();
+            Member m = l.getMember();
+            sink.loan(b.getId(), b.getTitle(), b.getAuthor(), m.getId(), m.getName(), l.getBorrowDate());
+        }
+    }
+
+    public void forEachBook(Consumer<? super Book> action) {
+        try (Stream<Book> s = streamBooks()) {
+            s.forEach(action);
+        }
+    }
+
+    public void forEachLoan(Consumer<? super Loan> action) {
+        try (Stream<Loan> s = streamLoans()) {
+            s.forEach(action);
+        }
+    }
+
+    // keyset page: up to limit books ordered by id, starting after afterId (null for the first page)
+    public List<Book> listBooksAfter(String afterId, int limit) {
+        Collection<Book> tail = afterId == null ? books.values() : books.tailMap(afterId, false).values();
+        return take(tail, 0, limit);
+    }
+
+    // offset page, for jumping into the middle of the catalog when no keyset is known
+    public List<Book> listBooksPage(int offset, int limit) {
+        return take(books.values(), offset, limit);
+    }
+
+    private static List<Book> take(Collection<Book> src, int offset, int limit) {
+        List<Book> out = new ArrayList<>(Math.min(limit, src.size()));
+        int i = 0;
+        for (Book b : src) {
+            if (out.size() >= limit) break;
+            if (i++ >= offset) out.add(b);
+        }
+        return out;
+    }
+
     public List<Loan> listLoans() {
         return new ArrayList<>(loans.values());
     }
 
+    // circulation analytics over returned loans; periods are whole months, from..to inclusive
+    public List<BookCount> topBorrowed(YearMonth from, YearMonth to, int n) {
+        return history.topBorrowed(from, to, n);
+    }
+
+    public Map<YearMonth, Long> circulationByMonth(YearMonth from, YearMonth to) {
+        return history.circulationByMonth(from, to);
+    }
+
+    // title/author substring search, case-insensitive; an empty query matches every book
+    public List<Book> search(String query, int limit) {
+        return index.search(query, limit);
+    }
+
+    public int countBooks() {
+        return books.size();
+    }
+
+    // changes whenever the catalog does, for checking caches kept across restarts
+    // (CatalogSnapshot); -1 if the backend can't tell. nothing here outlives the process
+    public long catalogVersion() {
+        return -1;
+    }
+
+    // backend errors so far. a backend that swallows a failure and answers empty or false
+    // (SqlLibrary) counts it here, so callers such as CachingLibrary can tell a real "not found"
+    // from a failed lookup. nothing here can fail
+    public long errorCount() {
+        return 0;
+    }
+
     public Optional<Book> findBook(String id) {
         return Optional.ofNullable(books.get(id));
     }
@@ -60,4 +316,8 @@ public class Library {
     public boolean memberExists(String id) {
         return members.containsKey(id);
     }
+
+    public Optional<Member> findMember(String id) {
+        return Optional.ofNullable(members.get(id));
+    }
 }
@@ -0,0 +1,279 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+// throughput benchmark for the Library backends, parameterized over catalog size, share of
+// books on loan and thread count. results are written as JSON so runs can be diffed.
+//
+// --report-threads n keeps n more threads running full listings (listAllBooks, listLoans) for the
+// whole of each measurement, to see how much long reads slow the measured op down.
+//
+//   java LibraryBenchmark --backend memory,compact,snapshot,sqlite --sizes 1000,100000 --loan-ratios 0,0.5
+//                         --threads 1,8 --report-threads 0,2 --warmup 1 --seconds 3 --out bench.json
+//
+// the JMH suite (jmh/bench/LibraryJmh.java, gradle jmh) runs the same ops through workload();
+// this harness stays for quick runs without the build.
+public class LibraryBenchmark {
+    private static final String[] WORDS = {"war", "peace", "night", "river", "garden", "king", "stone", "winter", "sea", "fire", "shadow", "city"};
+    private static final String[] AUTHORS = {"George Orwell", "Aldous Huxley", "J.R.R. Tolkien", "Jane Austen", "Leo Tolstoy", "Toni Morrison", "Ursula Le Guin", "Italo Calvino"};
+    private static final int MEMBERS = 1000;
+    // results of the measured calls end up here, so the JIT can't drop the calls as dead code
+    static volatile long blackhole;
+
+    interface Op {
+        // returns something derived from the result so the call can't be optimized away
+        long run(Library lib, ThreadLocalRandom rnd, int size);
+    }
+
+    static final Map<String, Op> OPS = new LinkedHashMap<>();
+    static {
+        OPS.put("findBook", (lib, rnd, n) -> lib.findBook(bookId(rnd.nextInt(n))).isPresent() ? 1 : 0);
+        OPS.put("borrowReturn", (lib, rnd, n) -> {
+            String id = bookId(rnd.nextInt(n));
+            boolean ok = lib.borrowBook(id, memberId(rnd.nextInt(MEMBERS)));
+            return ok && lib.returnBook(id) ? 1 : 0;
+        });
+        OPS.put("search", (lib, rnd, n) -> lib.search(WORDS[rnd.nextInt(WORDS.length)] + " " + rnd.nextInt(10), 50).size());
+        OPS.put("memberExists", (lib, rnd, n) -> lib.memberExists(memberId(rnd.nextInt(MEMBERS * 2))) ? 1 : 0);
+        OPS.put("listLoans", (lib, rnd, n) -> lib.listLoans().size());
+        OPS.put("loansByMember", (lib, rnd, n) -> lib.listLoansByMember(memberId(rnd.nextInt(MEMBERS))).size());
+        OPS.put("loansByMemberScan", (lib, rnd, n) -> {
+            String m = memberId(rnd.nextInt(MEMBERS));
+            try (Stream<Loan> s = lib.streamLoans()) { return s.filter(l -> l.getMember().getId().equals(m)).count(); }
+        });
+        OPS.put("loansBefore", (lib, rnd, n) -> lib.listLoansBorrowedBefore(LocalDate.now().minusDays(1 + rnd.nextInt(30))).size());
+        OPS.put("loansBeforeScan", (lib, rnd, n) -> {
+            LocalDate cutoff = LocalDate.now().minusDays(1 + rnd.nextInt(30));
+            try (Stream<Loan> s = lib.streamLoans()) { return s.filter(l -> l.getBorrowDate().isBefore(cutoff)).count(); }
+        });
+        OPS.put("topBorrowed", (lib, rnd, n) -> lib.topBorrowed(YearMonth.now().minusMonths(11), YearMonth.now(), 10).size());
+        OPS.put("listAllBooks", (lib, rnd, n) -> lib.listAllBooks().size());
+        OPS.put("streamLoans", (lib, rnd, n) -> {
+            try (Stream<Loan> s = lib.streamLoans()) { return s.count(); }
+        });
+        OPS.put("streamBooks", (lib, rnd, n) -> {
+            long[] c = new long[1];
+            lib.forEachBook(b -> c[0]++);
+            return c[0];
+        });
+    }
+
+    // one op against a populated backend, for the JMH suite: JMH won't take benchmarks in the
+    // default package and a named package can't see these classes, so it only gets the op as a
+    // LongSupplier and closes the backend through AutoCloseable
+    public static final class Workload implements LongSupplier, AutoCloseable {
+        private final Library lib;
+        private final Op op;
+        private final int size;
+
+        private Workload(Library lib, Op op, int size) {
+            this.lib = lib;
+            this.op = op;
+            this.size = size;
+        }
+
+        @Override
+        public long getAsLong() {
+            return op.run(lib, ThreadLocalRandom.current(), size);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!(lib instanceof AutoCloseable)) return;
+            try {
+                ((AutoCloseable) lib).close();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("closing the benchmark backend failed", e);
+            }
+        }
+    }
+
+    public static Workload workload(String backend, int size, double loanRatio, String opName) throws IOException {
+        Op op = OPS.get(opName);
+        if (op == null) throw new IllegalArgumentException("unknown op " + opName);
+        Library lib = open(backend, size);
+        if (lib == null) throw new IllegalStateException(backend + " backend unavailable");
+        populate(lib, size, loanRatio);
+        return new Workload(lib, op, size);
+    }
+
+    static String bookId(int i) { return "B" + i; }
+    static String memberId(int i) { return "M" + i; }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = parse(args);
+        String[] backends = opt.getOrDefault("backend", "memory,sqlite").split(",");
+        int[] sizes = ints(opt.getOrDefault("sizes", "1000,10000,100000,1000000"));
+        double[] ratios = doubles(opt.getOrDefault("loan-ratios", "0,0.5"));
+        int[] threads = ints(opt.getOrDefault("threads", "1," + Runtime.getRuntime().availableProcessors()));
+        String[] ops = opt.getOrDefault("ops", String.join(",", OPS.keySet())).split(",");
+        int[] reportThreads = ints(opt.getOrDefault("report-threads", "0"));
+        double warmup = Double.parseDouble(opt.getOrDefault("warmup", "1"));
+        double seconds = Double.parseDouble(opt.getOrDefault("seconds", "3"));
+        Path out = Paths.get(opt.getOrDefault("out", "bench.json"));
+
+        List<String> results = new ArrayList<>();
+        for (String backend : backends) {
+            for (int size : sizes) {
+                for (double ratio : ratios) {
+                    Library lib = open(backend.trim(), size);
+                    if (lib == null) continue;
+                    populate(lib, size, ratio);
+                    for (int t : threads) {
+                        for (int reporters : reportThreads) {
+                            for (String name : ops) {
+                                Op op = OPS.get(name.trim());
+                                if (op == null) throw new IllegalArgumentException("unknown op " + name);
+                                AtomicBoolean stop = reports(lib, reporters);
+                                double[] r;
+                                try {
+                                    measure(lib, op, size, t, warmup);
+                                    r = measure(lib, op, size, t, seconds);
+                                } finally { stop.set(true); }
+                                String json = String.format(Locale.ROOT,
+                                        "{\"backend\":\"%s\",\"size\":%d,\"loanRatio\":%s,\"threads\":%d,\"reportThreads\":%d,\"op\":\"%s\",\"opsPerSec\":%.1f,\"nsPerOp\":%.1f,\"bytesPerOp\":%.0f}",
+                                        backend.trim(), size, ratio, t, reporters, name.trim(), r[0], r[1], r[2]);
+                                System.out.println(json);
+                                results.add(json);
+                            }
+                        }
+                    }
+                    if (lib instanceof AutoCloseable) ((AutoCloseable) lib).close();
+                }
+            }
+        }
+        Files.write(out, ("[\n  " + String.join(",\n  ", results) + "\n]\n").getBytes(StandardCharsets.UTF_8));
+        System.out.println("wrote " + results.size() + " results to " + out);
+    }
+
+    private static Library open(String backend, int size) throws IOException {
+        if ("memory".equals(backend)) return new Library(size, MEMBERS);
+        if ("compact".equals(backend)) return new CompactLibrary(size, MEMBERS);
+        if ("snapshot".equals(backend)) return new SnapshotLibrary(size);
+        if ("sqlite".equals(backend)) {
+            Path db = Files.createTempFile("library-bench", ".db");
+            db.toFile().deleteOnExit();
+            try {
+                return new SqlLibrary("jdbc:sqlite:" + db);
+            } catch (Exception e) {
+                System.err.println("skipping sqlite backend: " + e.getMessage());
+                return null;
+            }
+        }
+        throw new IllegalArgumentException("unknown backend " + backend);
+    }
+
+    private static void populate(Library lib, int size, double loanRatio) {
+        List<Book> books = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String title = WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length] + " " + i;
+            books.add(new Book(bookId(i), title, AUTHORS[i % AUTHORS.length]));
+        }
+        lib.addBooks(books);
+        List<Member> members = new ArrayList<>(MEMBERS);
+        for (int i = 0; i < MEMBERS; i++) members.add(new Member(memberId(i), "Member " + i));
+        lib.registerMembers(members);
+        int onLoan = (int) (size * loanRatio);
+        for (int i = 0; i < onLoan; i++) lib.borrowBook(bookId(i), memberId(i % MEMBERS));
+    }
+
+    // starts n daemon threads doing full listings back to back until the returned flag is set
+    private static AtomicBoolean reports(Library lib, int n) {
+        AtomicBoolean stop = new AtomicBoolean();
+        for (int i = 0; i < n; i++) {
+            Thread th = new Thread(() -> {
+                long rows = 0;
+                while (!stop.get()) rows += lib.listAllBooks().size() + lib.listLoans().size();
+                blackhole = rows;
+            }, "bench-report-" + i);
+            th.setDaemon(true);
+            th.start();
+        }
+        return stop;
+    }
+
+    // returns {ops per second, average ns per op, heap bytes allocated per op (-1 if the JVM can't tell)}
+    private static double[] measure(Library lib, Op op, int size, int threads, double seconds) throws InterruptedException {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean alloc = mx instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) mx : null;
+        AtomicLong allocated = new AtomicLong();
+        AtomicLong ops = new AtomicLong();
+        AtomicLong sink = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long durationNs = (long) (seconds * 1e9);
+        for (int t = 0; t < threads; t++) {
+            Thread th = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                long n = 0, acc = 0;
+                long id = Thread.currentThread().getId();
+                long bytes0 = alloc == null ? 0 : alloc.getThreadAllocatedBytes(id);
+                try {
+                    start.await();
+                    long end = System.nanoTime() + durationNs;
+                    while (System.nanoTime() < end) {
+                        acc += op.run(lib, rnd, size);
+                        n++;
+                    }
+                } catch (InterruptedException ignored) {
+                } finally {
+                    if (alloc != null) allocated.addAndGet(alloc.getThreadAllocatedBytes(id) - bytes0);
+                    ops.addAndGet(n);
+                    sink.addAndGet(acc);
+                    done.countDown();
+                }
+            }, "bench-" + t);
+            th.start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        done.await();
+        double elapsed = (System.nanoTime() - t0) / 1e9;
+        blackhole = sink.get();
+        double perSec = ops.get() / elapsed;
+        double bytesPerOp = alloc == null || ops.get() == 0 ? -1 : (double) allocated.get() / ops.get();
+        return new double[] {perSec, ops.get() == 0 ? 0 : threads * 1e9 / perSec, bytesPerOp};
+    }
+
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> opt = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("expected --option, got " + args[i]);
+            opt.put(args[i].substring(2), args[i + 1]);
+        }
+        return opt;
+    }
+
+    private static int[] ints(String csv) {
+        String[] p = csv.split(",");
+        int[] out = new int[p.length];
+        for (int i = 0; i < p.length; i++) out[i] = Integer.parseInt(p[i].trim());
+        return out;
+    }
+
+    private static double[] doubles(String csv) {
+        String[] p = csv.split(",");
+        double[] out = new double[p.length];
+        for (int i = 0; i < p.length; i++) out[i] = Double.parseDouble(p[i].trim());
+        return out;
+    }
+}
@@ -0,0 +1,35 @@
+// one change to a Library, delivered to LibraryListeners in coalesced batches.
+// RELOAD means too much changed to describe row by row (bulk loads, a listener that fell
+// behind); listeners should re-read whatever they show.
+public class LibraryEvent {
+    public enum Type { BOOK_ADDED, AVAILABILITY_CHANGED, MEMBER_REGISTERED, RELOAD }
+
+    private final Type type;
+    private final String id;
+    private final boolean available;
+
+    public LibraryEvent(Type type, String id, boolean available) {
+        this.type = type;
+        this.id = id;
+        this.available = available;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    // book or member id; null for RELOAD
+    public String getId() {
+        return id;
+    }
+
+    // availability of the book after the change (BOOK_ADDED and AVAILABILITY_CHANGED)
+    public boolean isAvailable() {
+        return available;
+    }
+
+    @Override
+    public String toString() {
+        return type + (id == null ? "" : " " + id) + (type == Type.MEMBER_REGISTERED || type == Type.RELOAD ? "" : available ? " (available)" : " (borrowed)");
+    }
+}
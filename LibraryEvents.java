@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// coalescing dispatcher behind Library's listener API. publishers only put the event into a
+// pending map keyed by book/member id, so a book borrowed and returned ten times between two
+// deliveries is reported once with its final state. a daemon thread (started with the first
+// listener) hands the pending batch to the listeners BATCH_MILLIS after the first change.
+// past MAX_PENDING distinct ids the batch collapses into a single RELOAD.
+public class LibraryEvents {
+    private static final long BATCH_MILLIS = 100;
+    private static final int MAX_PENDING = 10_000;
+
+    private final List<LibraryListener> listeners = new CopyOnWriteArrayList<>();
+    private final Object lock = new Object();
+    private Map<String, LibraryEvent> pending = new LinkedHashMap<>();
+    private boolean reload;
+    private Thread dispatcher;
+
+    public void addListener(LibraryListener l) {
+        listeners.add(l);
+        synchronized (lock) {
+            if (dispatcher != null) return;
+            dispatcher = new Thread(this::dispatchLoop, "library-events");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+    }
+
+    public void removeListener(LibraryListener l) {
+        listeners.remove(l);
+    }
+
+    public boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    public void bookAdded(String id, boolean available) {
+        publish("B" + id, LibraryEvent.Type.BOOK_ADDED, id, available);
+    }
+
+    public void availabilityChanged(String id, boolean available) {
+        publish("B" + id, LibraryEvent.Type.AVAILABILITY_CHANGED, id, available);
+    }
+
+    public void memberRegistered(String id) {
+        publish("M" + id, LibraryEvent.Type.MEMBER_REGISTERED, id, false);
+    }
+
+    public void reload() {
+        if (listeners.isEmpty()) return;
+        synchronized (lock) {
+            reload = true;
+            pending.clear();
+            lock.notifyAll();
+        }
+    }
+
+    private void publish(String key, LibraryEvent.Type type, String id, boolean available) {
+        if (listeners.isEmpty()) return;
+        synchronized (lock) {
+            if (reload) return;
+            LibraryEvent prev = pending.get(key);
+            // a book added and then borrowed in the same batch is still new to the listener
+            if (prev != null && prev.getType() == LibraryEvent.Type.BOOK_ADDED) type = LibraryEvent.Type.BOOK_ADDED;
+            pending.put(key, new LibraryEvent(type, id, available));
+            if (pending.size() > MAX_PENDING) {
+                reload = true;
+                pending.clear();
+            }
+            if (prev == null) lock.notifyAll();
+        }
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            List<LibraryEvent> batch;
+            try {
+                synchronized (lock) {
+                    while (pending.isEmpty() && !reload) lock.wait();
+                }
+                // let changes pile up for a moment so bursts arrive as one batch
+                Thread.sleep(BATCH_MILLIS);
+                synchronized (lock) {
+                    if (reload) {
+                        batch = new ArrayList<>(1);
+                        batch.add(new LibraryEvent(LibraryEvent.Type.RELOAD, null, false));
+                        reload = false;
+                    } else {
+                        batch = new ArrayList<>(pending.values());
+                    }
+                    pending = new LinkedHashMap<>();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (LibraryListener l : listeners) {
+                try {
+                    l.libraryChanged(batch);
+                } catch (RuntimeException e) { e.printStackTrace(); }
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+import java.util.List;
+
+// receives Library changes in batches on the library-events thread, at most one batch at a
+// time. a batch holds one event per book or member, the latest state after coalescing.
+public interface LibraryListener {
+    void libraryChanged(List<LibraryEvent> batch);
+}
@@ -0,0 +1,268 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// headless JSON API over any Library backend, for kiosks and the web catalog.
+//
+//   GET  /books?q=..&limit=50     search (without q: the whole catalog, streamed)
+//   GET  /books/{id}              one book, 404 if unknown
+//   POST /books/{id}/borrow?member={memberId}
+//   POST /books/{id}/return       200 {"ok":true}, 409 {"ok":false} if refused
+//   GET  /loans                   active loans, streamed
+//   GET  /members/{id}            200 {"id":..,"name":..} or 404
+//
+// one thread per request: virtual threads where the JDK has them (21+), otherwise a bounded
+// pool of platform threads. backends block on I/O, so requests never run on the accept thread.
+//
+//   java LibraryServer --port 8080 --backend memory|sqlite --books 10000
+public class LibraryServer implements AutoCloseable {
+    private static final int DEFAULT_LIMIT = 50;
+    private static final int MAX_LIMIT = 1000;
+    private static final int PLATFORM_THREADS = 256;
+
+    private final Library lib;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public LibraryServer(Library lib, int port) throws IOException {
+        this.lib = lib;
+        this.executor = requestExecutor();
+        // the JDK server leaves Nagle's algorithm on, so small replies wait out the client's
+        // delayed ACK (~40 ms each). read once, when the first server in the JVM is created, so
+        // it's set here rather than in main: in-process servers (HttpLoadGenerator) need it too
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/books", ex -> serve(ex, "/books", this::books));
+        server.createContext("/loans", ex -> serve(ex, "/loans", this::loans));
+        server.createContext("/members", ex -> serve(ex, "/members", this::members));
+        server.setExecutor(executor);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively so this still
+    // compiles and runs on JDK 17
+    static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger n = new AtomicInteger();
+            return Executors.newFixedThreadPool(PLATFORM_THREADS, r -> {
+                Thread t = new Thread(r, "library-http-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---- handlers ----
+
+    // contexts match by prefix, so /booksX would land in /books: only the context itself and
+    // paths below it are served. a handler failing before its status went out gets a 500; once
+    // a streamed 200 is under way the connection is dropped instead, without the final chunk,
+    // so the client sees a broken reply rather than a short array
+    private static void serve(HttpExchange ex, String context, HttpHandler handler) throws IOException {
+        String p = ex.getRequestURI().getRawPath();
+        try {
+            if (p.length() > context.length() && p.charAt(context.length()) != '/') send(ex, 404, error("not found"));
+            else handler.handle(ex);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            if (ex.getResponseCode() != -1) throw new IOException("response to " + p + " aborted", e);
+            send(ex, 500, error(String.valueOf(e.getMessage())));
+        }
+        ex.close();
+    }
+
+    private void books(HttpExchange ex) throws IOException {
+        String[] path = path(ex, "/books");
+        Map<String, String> q = query(ex);
+        String method = ex.getRequestMethod();
+        if (path.length == 0 && "GET".equals(method)) {
+            String text = q.get("q");
+            if (text == null || text.trim().isEmpty()) {
+                try (Stream<Book> all = lib.streamBooks()) { sendStream(ex, all.iterator(), LibraryServer::book); }
+            } else {
+                List<Book> found = lib.search(text, limit(q));
+                sendStream(ex, found.iterator(), LibraryServer::book);
+            }
+        } else if (path.length == 1 && "GET".equals(method)) {
+            Optional<Book> b = lib.findBook(path[0]);
+            if (b.isPresent()) send(ex, 200, book(b.get()));
+            else send(ex, 404, error("no such book"));
+        } else if (path.length == 2 && "POST".equals(method) && "borrow".equals(path[1])) {
+            String member = q.get("member");
+            if (member == null) { send(ex, 400, error("member parameter required")); return; }
+            boolean ok = lib.borrowBook(path[0], member);
+            send(ex, ok ? 200 : 409, "{\"ok\":" + ok + "}");
+        } else if (path.length == 2 && "POST".equals(method) && "return".equals(path[1])) {
+            boolean ok = lib.returnBook(path[0]);
+            send(ex, ok ? 200 : 409, "{\"ok\":" + ok + "}");
+        } else {
+            send(ex, 404, error("not found"));
+        }
+    }
+
+    private void loans(HttpExchange ex) throws IOException {
+        if (path(ex, "/loans").length != 0 || !"GET".equals(ex.getRequestMethod())) {
+            send(ex, 404, error("not found"));
+            return;
+        }
+        try (Stream<Loan> loans = lib.streamLoans()) { sendStream(ex, loans.iterator(), LibraryServer::loan); }
+    }
+
+    private void members(HttpExchange ex) throws IOException {
+        String[] path = path(ex, "/members");
+        if (path.length != 1 || !"GET".equals(ex.getRequestMethod())) {
+            send(ex, 404, error("not found"));
+            return;
+        }
+        Optional<Member> m = lib.findMember(path[0]);
+        if (m.isPresent()) send(ex, 200, member(m.get()));
+        else send(ex, 404, error("no such member"));
+    }
+
+    // ---- request parsing ----
+
+    private static String[] path(HttpExchange ex, String context) {
+        String rest = ex.getRequestURI().getRawPath().substring(context.length());
+        List<String> parts = new ArrayList<>(2);
+        for (String p : rest.split("/")) if (!p.isEmpty()) parts.add(URLDecoder.decode(p, StandardCharsets.UTF_8));
+        return parts.toArray(new String[0]);
+    }
+
+    private static Map<String, String> query(HttpExchange ex) {
+        Map<String, String> out = new HashMap<>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if (raw == null) return out;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            out.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    private static int limit(Map<String, String> q) {
+        try {
+            return Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(q.getOrDefault("limit", "" + DEFAULT_LIMIT))));
+        } catch (NumberFormatException e) {
+            return DEFAULT_LIMIT;
+        }
+    }
+
+    // ---- responses ----
+
+    private interface JsonWriter<T> {
+        String write(T value);
+    }
+
+    private static void send(HttpExchange ex, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, body.length);
+        ex.getResponseBody().write(body);
+    }
+
+    // chunked JSON array, written row by row: a full catalog never sits in memory as one string
+    private static <T> void sendStream(HttpExchange ex, Iterator<T> rows, JsonWriter<T> json) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(200, 0);
+        Writer w = new BufferedWriter(new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8), 1 << 16);
+        w.write('[');
+        boolean first = true;
+        while (rows.hasNext()) {
+            if (!first) w.write(",\n");
+            w.write(json.write(rows.next()));
+            first = false;
+        }
+        w.write("]\n");
+        w.flush();
+    }
+
+    static String book(Book b) {
+        return "{\"id\":" + str(b.getId()) + ",\"title\":" + str(b.getTitle()) + ",\"author\":" + str(b.getAuthor())
+                + ",\"available\":" + b.isAvailable() + "}";
+    }
+
+    static String member(Member m) {
+        return "{\"id\":" + str(m.getId()) + ",\"name\":" + str(m.getName()) + "}";
+    }
+
+    static String loan(Loan l) {
+        return "{\"bookId\":" + str(l.getBook().getId()) + ",\"title\":" + str(l.getBook().getTitle())
+                + ",\"memberId\":" + str(l.getMember().getId()) + ",\"borrowDate\":" + str(l.getBorrowDate().toString()) + "}";
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + str(message) + "}";
+    }
+
+    static String str(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = LibraryBenchmark.parse(args);
+        int port = Integer.parseInt(opt.getOrDefault("port", "8080"));
+        Library lib = "sqlite".equals(opt.get("backend"))
+                ? new SqlLibrary(opt.getOrDefault("db", "jdbc:sqlite:library.db"))
+                : new Library();
+        int books = Integer.parseInt(opt.getOrDefault("books", "0"));
+        if (books > 0 && lib.countBooks() == 0) HttpLoadGenerator.seed(lib, books);
+        LibraryServer server = new LibraryServer(lib, port);
+        server.start();
+        System.out.println("LibraryServer listening on port " + server.getPort() + " (" + lib.countBooks() + " books)");
+    }
+}
@@ -4,43 +4,124 @@ import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class LibraryUI extends JFrame {
-    private Library lib;
-    private final DefaultListModel<Book> bookModel = new DefaultListModel<>();
-    private final JList<Book> bookList = new JList<>(bookModel);
+    private volatile Library lib;
+    private AsyncLibrary async;
+    private BookListModel bookModel;
+    private final JList<Book> bookList = new JList<>();
     private final JLabel statusBar = new JLabel("Ready");
-    private final List<Book> allBooks = new ArrayList<>();
+    private final JLabel metricsBar = new JLabel();
+    private final JTextField search = new JTextField();
+    // enabled once a backend is attached
+    private final List<JComponent> backendActions = new ArrayList<>();
+    private static final int SEARCH_LIMIT = 1000;
+    private static final int SEARCH_DELAY_MS = 200;
+    private static final int SUGGESTIONS = 8;
+    // search runs SEARCH_DELAY_MS after the last keystroke; a newer query cancels the pending one
+    private final Timer searchDelay = new Timer(SEARCH_DELAY_MS, null);
+    private CompletableFuture<List<Book>> pendingRows;
+    private CompletableFuture<Integer> pendingTotal;
+    // typeahead over titles and authors; replaced whole when rebuilt, so the EDT never waits on a build
+    private volatile SuggestionIndex suggestions = new SuggestionIndex();
+    // -Dlibrary.snapshot=path moves the cached catalog (CatalogSnapshot)
+    private final Path snapshotFile = Paths.get(System.getProperty("library.snapshot", "catalog.snapshot"));
+    // read at startup, until the suggestion index has been built from it or found it stale
+    private volatile CatalogSnapshot snapshot;
+    private final long started = System.nanoTime();
+    private long lastPhase = started;
+    private boolean startupLogged;
 
+    // fast start: the window comes up at once showing the cached catalog snapshot, while the
+    // backend is opened on a background thread and attached when ready. phase timings go to stdout
     public LibraryUI() {
-        try {
-            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-        } catch (Exception ignored) {}
-        // try SQL backend (requires sqlite-jdbc on classpath). fallback to in-memory Library.
-        try {
-            lib = new SqlLibrary("jdbc:sqlite:library.db");
-        } catch (Exception e) {
-            lib = new Library();
-        }
-        if (lib.listAllBooks().isEmpty()) seedData();
+        setLookAndFeel();
+        phase("look and feel");
         initComponents();
-        refreshBooks();
+        phase("components");
+        openInBackground(null);
     }
 
-    // allow constructing UI with an existing Library backend (used for login flow)
+    // allow constructing UI with an existing Library backend (used for login flow). counting and
+    // seeding it can block on I/O too, so it's attached the same way, off the EDT
     public LibraryUI(Library lib) {
+        setLookAndFeel();
+        initComponents();
+        statusBar.setText("Opening catalog...");
+        openInBackground(lib);
+    }
+
+    private static void setLookAndFeel() {
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception ignored) {}
-        this.lib = lib;
-        if (lib.listAllBooks().isEmpty()) seedData();
-        initComponents();
-        refreshBooks();
     }
 
-    private void seedData() {
+    // opens the default backend, or takes the given one as it is, then seeds it if empty and
+    // attaches it on the EDT
+    private void openInBackground(Library given) {
+        Thread t = new Thread(() -> {
+            if (given != null) {
+                if (given.countBooks() == 0) seedData(given);
+                SwingUtilities.invokeLater(() -> attach(given));
+                return;
+            }
+            CatalogSnapshot cached = CatalogSnapshot.read(snapshotFile);
+            if (cached != null) {
+                snapshot = cached;
+                phase("snapshot read (" + cached.getBooks().size() + " books)");
+                SwingUtilities.invokeLater(() -> showSnapshot(cached));
+            }
+            // try SQL backend (requires sqlite-jdbc on classpath). fallback to in-memory Library.
+            // -Dlibrary.shards=N splits the catalog over library-0.db .. library-(N-1).db
+            Library opened;
+            try {
+                opened = new InstrumentedLibrary(new CachingLibrary(openSqlBackend(Integer.getInteger("library.shards", 1))));
+            } catch (Exception e) {
+                opened = new InstrumentedLibrary(new Library());
+            }
+            phase("backend open");
+            if (opened.countBooks() == 0) seedData(opened);
+            Library ready = opened;
+            SwingUtilities.invokeLater(() -> {
+                attach(ready);
+                phase("backend attached");
+            });
+        }, "library-startup");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // logged until the suggestion index is first built, the last step of startup
+    private synchronized void phase(String what) {
+        if (startupLogged) return;
+        long now = System.nanoTime();
+        System.out.printf("LibraryUI startup: %-36s %6d ms  (%d ms total)%n", what, (now - lastPhase) / 1_000_000, (now - started) / 1_000_000);
+        lastPhase = now;
+    }
+
+    private synchronized void startupDone() {
+        phase("suggestions ready");
+        startupLogged = true;
+    }
+
+    private static Library openSqlBackend(int shards) throws Exception {
+        if (shards <= 1) return new SqlLibrary("jdbc:sqlite:library.db");
+        List<Library> parts = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) parts.add(new SqlLibrary("jdbc:sqlite:library-" + i + ".db"));
+        return new ShardedLibrary(parts);
+    }
+
+    private static void seedData(Library lib) {
         lib.addBook(new Book("B1", "1984", "George Orwell"));
         lib.addBook(new Book("B2", "Brave New World", "Aldous Huxley"));
         lib.addBook(new Book("B3", "The Hobbit", "J.R.R. Tolkien"));
@@ -62,18 +143,23 @@ public class LibraryUI extends JFrame {
         title.setFont(title.getFont().deriveFont(Font.BOLD, 20f));
         top.add(title, BorderLayout.WEST);
 
-        JTextField search = new JTextField();
         search.setToolTipText("Search by title or author");
+        searchDelay.setRepeats(false);
+        searchDelay.addActionListener(e -> refreshBooks(search.getText()));
         search.getDocument().addDocumentListener(new DocumentListener() {
-            public void insertUpdate(DocumentEvent e) { refreshBooks(search.getText()); }
-            public void removeUpdate(DocumentEvent e) { refreshBooks(search.getText()); }
-            public void changedUpdate(DocumentEvent e) { refreshBooks(search.getText()); }
+            public void insertUpdate(DocumentEvent e) { searchDelay.restart(); }
+            public void removeUpdate(DocumentEvent e) { searchDelay.restart(); }
+            public void changedUpdate(DocumentEvent e) { searchDelay.restart(); }
         });
+        new SuggestionPopup(search, text -> suggestions.suggest(text, SUGGESTIONS));
         top.add(search, BorderLayout.CENTER);
         main.add(top, BorderLayout.NORTH);
 
         bookList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         bookList.setCellRenderer(new BookCellRenderer());
+        // fixed cell size so JList never renders every row to measure it
+        bookList.setFixedCellHeight(BookCellRenderer.CELL_HEIGHT);
+        bookList.setFixedCellWidth(200);
         JScrollPane scroll = new JScrollPane(bookList);
         scroll.setBorder(BorderFactory.createLineBorder(Color.LIGHT_GRAY));
         main.add(scroll, BorderLayout.CENTER);
@@ -105,6 +191,7 @@ public class LibraryUI extends JFrame {
         btnRefresh.addActionListener(e -> refreshBooks());
         gbc.gridy = 4; right.add(btnRefresh, gbc);
 
+        backendActions.addAll(List.of(btnBorrow, btnReturn, btnAddBook, btnAddMember, btnRefresh));
         main.add(right, BorderLayout.EAST);
 
         JMenuBar mb = new JMenuBar();
@@ -121,27 +208,52 @@ public class LibraryUI extends JFrame {
         setJMenuBar(mb);
 
         statusBar.setBorder(new EmptyBorder(4,4,4,4));
-        add(statusBar, BorderLayout.SOUTH);
+        JPanel south = new JPanel(new BorderLayout());
+        south.add(statusBar, BorderLayout.CENTER);
+        metricsBar.setBorder(new EmptyBorder(4,4,4,4));
+        metricsBar.setForeground(Color.GRAY);
+        south.add(metricsBar, BorderLayout.EAST);
+        add(south, BorderLayout.SOUTH);
 
         add(main);
+        for (JComponent c : backendActions) c.setEnabled(false);
+    }
+
+    // the cached catalog, shown until the backend is attached
+    private void showSnapshot(CatalogSnapshot cached) {
+        if (lib != null) return;
+        List<Book> rows = cached.getBooks();
+        bookList.setModel(new AbstractListModel<Book>() {
+            @Override
+            public int getSize() { return rows.size(); }
+
+            @Override
+            public Book getElementAt(int index) { return rows.get(index); }
+        });
+        statusBar.setText("Showing " + rows.size() + " books (cached), opening catalog...");
     }
 
-    private class BookCellRenderer implements ListCellRenderer<Book> {
-        @Override
-        public Component getListCellRendererComponent(JList<? extends Book> list, Book value, int index, boolean isSelected, boolean cellHasFocus) {
-            JPanel p = new JPanel(new BorderLayout(4,2));
-            p.setBorder(new EmptyBorder(6,6,6,6));
-            JLabel title = new JLabel(value.getTitle());
-            title.setFont(title.getFont().deriveFont(Font.BOLD, 12f));
-            JLabel meta = new JLabel(value.getAuthor() + " — " + (value.isAvailable() ? "Available" : "Checked out"));
-            meta.setFont(meta.getFont().deriveFont(Font.PLAIN, 11f));
-            meta.setForeground(Color.DARK_GRAY);
-            p.add(title, BorderLayout.NORTH);
-            p.add(meta, BorderLayout.SOUTH);
-            if (isSelected) { p.setBackground(list.getSelectionBackground()); p.setForeground(list.getSelectionForeground()); }
-            else { p.setBackground(list.getBackground()); p.setForeground(list.getForeground()); }
-            return p;
+    // call on the EDT
+    private void attach(Library lib) {
+        this.lib = lib;
+        async = new AsyncLibrary(lib);
+        bookModel = new BookListModel(lib);
+        bookList.setModel(bookModel);
+        // rows update from the backend's change events, including changes made at other desks.
+        // listeners run on the events thread, so the count is taken there and not on the EDT
+        lib.addLibraryListener(batch -> {
+            int size = BookListModel.changesSize(batch) ? lib.countBooks() : -1;
+            SwingUtilities.invokeLater(() -> bookModel.applyChanges(batch, size));
+            updateSuggestions(batch);
+        });
+        rebuildSuggestions();
+        if (lib instanceof InstrumentedLibrary) {
+            // live latency summary, refreshed once a second
+            InstrumentedLibrary metrics = (InstrumentedLibrary) lib;
+            new Timer(1000, e -> metricsBar.setText(metrics.summary())).start();
         }
+        for (JComponent c : backendActions) c.setEnabled(true);
+        refreshBooks(search.getText());
     }
 
     private void onBorrow() {
@@ -152,11 +264,12 @@ public class LibraryUI extends JFrame {
         }
         String mid = JOptionPane.showInputDialog(this, "Member ID:");
         if (mid == null || mid.trim().isEmpty()) return;
-        boolean ok = lib.borrowBook(b.getId(), mid.trim());
-        String msg = ok ? "Borrowed." : "Could not borrow (check IDs or availability).";
-        JOptionPane.showMessageDialog(this, msg, "Result", JOptionPane.INFORMATION_MESSAGE);
-        statusBar.setText(msg);
-        refreshBooks();
+        statusBar.setText("Borrowing " + b.getTitle() + "...");
+        onEdt(async.borrowBook(b.getId(), mid.trim()), ok -> {
+            String msg = ok ? "Borrowed." : "Could not borrow (check IDs or availability).";
+            JOptionPane.showMessageDialog(this, msg, "Result", JOptionPane.INFORMATION_MESSAGE);
+            statusBar.setText(msg);
+        });
     }
 
     private void onReturn() {
@@ -165,11 +278,12 @@ public class LibraryUI extends JFrame {
             JOptionPane.showMessageDialog(this, "Select a book first.", "Info", JOptionPane.INFORMATION_MESSAGE);
             return;
         }
-        boolean ok = lib.returnBook(b.getId());
-        String msg = ok ? "Returned." : "Could not return (no active loan).";
-        JOptionPane.showMessageDialog(this, msg, "Result", JOptionPane.INFORMATION_MESSAGE);
-        statusBar.setText(msg);
-        refreshBooks();
+        statusBar.setText("Returning " + b.getTitle() + "...");
+        onEdt(async.returnBook(b.getId()), ok -> {
+            String msg = ok ? "Returned." : "Could not return (no active loan).";
+            JOptionPane.showMessageDialog(this, msg, "Result", JOptionPane.INFORMATION_MESSAGE);
+            statusBar.setText(msg);
+        });
     }
 
     private void onAddBook() {
@@ -179,9 +293,7 @@ public class LibraryUI extends JFrame {
         if (title == null) return;
         String author = JOptionPane.showInputDialog(this, "Author:");
         if (author == null) return;
-        lib.addBook(new Book(id.trim(), title.trim(), author.trim()));
-        statusBar.setText("Book added: " + title.trim());
-        refreshBooks();
+        onEdt(async.addBook(new Book(id.trim(), title.trim(), author.trim())), v -> statusBar.setText("Book added: " + title.trim()));
     }
 
     private void onAddMember() {
@@ -189,31 +301,95 @@ public class LibraryUI extends JFrame {
         if (id == null || id.trim().isEmpty()) return;
         String name = JOptionPane.showInputDialog(this, "Name:");
         if (name == null) return;
-        lib.registerMember(new Member(id.trim(), name.trim()));
-        statusBar.setText("Member added: " + name.trim());
+        onEdt(async.registerMember(new Member(id.trim(), name.trim())), v -> statusBar.setText("Member added: " + name.trim()));
+    }
+
+    // built off the EDT, then swapped in. backends with a catalogVersion() are read through the
+    // snapshot: a current one means no catalog read at all, otherwise the one read done here
+    // also rewrites it. the catalog of other backends is streamed
+    private void rebuildSuggestions() {
+        Library source = lib;
+        Thread t = new Thread(() -> {
+            SuggestionIndex fresh = new SuggestionIndex();
+            try {
+                long version = source.catalogVersion();
+                if (version < 0) {
+                    try (Stream<Book> books = source.streamBooks()) { fresh.addAll(books::iterator); }
+                } else {
+                    CatalogSnapshot cat = snapshot;
+                    snapshot = null;
+                    if (cat == null || !cat.isCurrent(version, source.countBooks())) {
+                        cat = CatalogSnapshot.write(source, snapshotFile);
+                        phase("catalog read, snapshot written (" + cat.getBooks().size() + " books)");
+                    } else {
+                        phase("snapshot current");
+                    }
+                    fresh.addAll(cat.getBooks());
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                return;
+            }
+            suggestions = fresh;
+            startupDone();
+        }, "library-suggestions");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // runs on the events thread. adds made while a rebuild is reading the catalog may be missed
+    // until the next rebuild
+    private void updateSuggestions(List<LibraryEvent> batch) {
+        SuggestionIndex ix = suggestions;
+        for (LibraryEvent e : batch) {
+            switch (e.getType()) {
+                case BOOK_ADDED: lib.findBook(e.getId()).ifPresent(ix::add); break;
+                case AVAILABILITY_CHANGED: if (!e.isAvailable()) lib.findBook(e.getId()).ifPresent(ix::recordBorrow); break;
+                case RELOAD: rebuildSuggestions(); return;
+                default:
+            }
+        }
     }
 
     private void refreshBooks() { refreshBooks(""); }
 
     private void refreshBooks(String filter) {
-        bookModel.clear();
-        allBooks.clear();
-        for (Book b : lib.listAllBooks()) allBooks.add(b);
-        String f = filter == null ? "" : filter.trim().toLowerCase();
-        int count = 0;
-        for (Book b : allBooks) {
-            if (f.isEmpty() || b.getTitle().toLowerCase().contains(f) || b.getAuthor().toLowerCase().contains(f)) {
-                bookModel.addElement(b);
-                count++;
+        // before the backend is attached; attach() refreshes with whatever was typed by then
+        if (async == null) return;
+        String f = filter == null ? "" : filter.trim();
+        // cancelled calls that haven't started are skipped; one already running is ignored below
+        if (pendingRows != null) pendingRows.cancel(false);
+        if (pendingTotal != null) pendingTotal.cancel(false);
+        CompletableFuture<List<Book>> rows = f.isEmpty() ? CompletableFuture.completedFuture(null) : async.search(f, SEARCH_LIMIT);
+        CompletableFuture<Integer> total = async.countBooks();
+        pendingRows = rows;
+        pendingTotal = total;
+        onEdt(CompletableFuture.allOf(rows, total), v -> {
+            if (rows != pendingRows) return;
+            List<Book> found = rows.join();
+            int n = total.join();
+            if (found == null) bookModel.showCatalog(n);
+            else bookModel.showResults(found);
+            statusBar.setText("Showing " + bookModel.getSize() + " of " + n + " books");
+        });
+    }
+
+    // runs then on the EDT once f completes; cancellations are expected and dropped
+    private <T> void onEdt(CompletableFuture<T> f, Consumer<T> then) {
+        f.whenComplete((v, e) -> SwingUtilities.invokeLater(() -> {
+            if (e == null) then.accept(v);
+            else if (!(e instanceof CancellationException || e.getCause() instanceof CancellationException)) {
+                e.printStackTrace();
+                statusBar.setText("Error: " + e.getMessage());
             }
-        }
-        statusBar.setText("Showing " + count + " of " + allBooks.size() + " books");
+        }));
     }
 
     public static void launch() {
         SwingUtilities.invokeLater(() -> {
             LibraryUI ui = new LibraryUI();
             ui.setVisible(true);
+            ui.phase("window shown");
         });
     }
 
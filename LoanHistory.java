@@ -0,0 +1,109 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// append-only archive of finished loans, partitioned by the month the book was borrowed.
+// each partition stores its records column-wise (ids plus epoch days) and keeps per-book
+// counters up to date on append, so popularity and circulation queries only touch counters.
+public class LoanHistory {
+    private final NavigableMap<YearMonth, Partition> partitions = new ConcurrentSkipListMap<>();
+
+    private static class Partition {
+        private String[] bookIds = new String[64];
+        private String[] memberIds = new String[64];
+        private int[] borrowDays = new int[64];
+        private int[] returnDays = new int[64];
+        private int size;
+        final Map<String, LongAdder> perBook = new ConcurrentHashMap<>();
+        final LongAdder total = new LongAdder();
+
+        synchronized void append(String bookId, String memberId, int borrowDay, int returnDay) {
+            if (size == bookIds.length) {
+                int cap = size * 2;
+                bookIds = Arrays.copyOf(bookIds, cap);
+                memberIds = Arrays.copyOf(memberIds, cap);
+                borrowDays = Arrays.copyOf(borrowDays, cap);
+                returnDays = Arrays.copyOf(returnDays, cap);
+            }
+            bookIds[size] = bookId;
+            memberIds[size] = memberId;
+            borrowDays[size] = borrowDay;
+            returnDays[size] = returnDay;
+            size++;
+            perBook.computeIfAbsent(bookId, k -> new LongAdder()).increment();
+            total.increment();
+        }
+
+        synchronized void forEach(RecordVisitor visitor) {
+            for (int i = 0; i < size; i++) visitor.visit(bookIds[i], memberIds[i], borrowDays[i], returnDays[i]);
+        }
+
+        synchronized int size() {
+            return size;
+        }
+    }
+
+    public interface RecordVisitor {
+        void visit(String bookId, String memberId, int borrowDay, int returnDay);
+    }
+
+    public void append(Loan loan) {
+        LocalDate returned = loan.getReturnDate() == null ? LocalDate.now() : loan.getReturnDate();
+        append(loan.getBook().getId(), loan.getMember().getId(), (int) loan.getBorrowDate().toEpochDay(), (int) returned.toEpochDay());
+    }
+
+    public void append(String bookId, String memberId, int borrowDay, int returnDay) {
+        partitions.computeIfAbsent(YearMonth.from(LocalDate.ofEpochDay(borrowDay)), k -> new Partition())
+                .append(bookId, memberId, borrowDay, returnDay);
+    }
+
+    // every archived record, partition by partition in append order
+    public void forEach(RecordVisitor visitor) {
+        for (Partition p : partitions.values()) p.forEach(visitor);
+    }
+
+    // the n most borrowed books over the months from..to (inclusive), most borrowed first
+    public List<BookCount> topBorrowed(YearMonth from, YearMonth to, int n) {
+        Map<String, Long> sums = new HashMap<>();
+        for (Partition p : partitions.subMap(from, true, to, true).values()) {
+            for (Map.Entry<String, LongAdder> e : p.perBook.entrySet()) sums.merge(e.getKey(), e.getValue().sum(), Long::sum);
+        }
+        PriorityQueue<BookCount> top = new PriorityQueue<>(n + 1, (a, b) -> Long.compare(a.getCount(), b.getCount()));
+        for (Map.Entry<String, Long> e : sums.entrySet()) {
+            if (top.size() < n) top.add(new BookCount(e.getKey(), e.getValue()));
+            else if (n > 0 && e.getValue() > top.peek().getCount()) {
+                top.poll();
+                top.add(new BookCount(e.getKey(), e.getValue()));
+            }
+        }
+        List<BookCount> out = new ArrayList<>(top);
+        out.sort((a, b) -> Long.compare(b.getCount(), a.getCount()));
+        return out;
+    }
+
+    // finished loans per month over from..to (inclusive), months without loans left out
+    public Map<YearMonth, Long> circulationByMonth(YearMonth from, YearMonth to) {
+        Map<YearMonth, Long> out = new LinkedHashMap<>();
+        for (Map.Entry<YearMonth, Partition> e : partitions.subMap(from, true, to, true).entrySet()) {
+            out.put(e.getKey(), e.getValue().total.sum());
+        }
+        return Collections.unmodifiableMap(out);
+    }
+
+    public long size() {
+        long n = 0;
+        for (Partition p : partitions.values()) n += p.size();
+        return n;
+    }
+}
@@ -0,0 +1,7 @@
+import java.io.IOException;
+import java.time.LocalDate;
+
+// receives active loans as plain fields from Library.exportLoans (CatalogExporter)
+public interface LoanRowSink {
+    void loan(String bookId, String title, String author, String memberId, String memberName, LocalDate borrowDate) throws IOException;
+}
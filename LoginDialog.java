@@ -13,6 +13,7 @@ public class LoginDialog extends JDialog {
 
     public LoginDialog(Frame parent, Library lib) {
         super(parent, "Login", true);
+        AsyncLibrary async = new AsyncLibrary(lib);
 
         JPanel mainPanel = new JPanel(new BorderLayout(8,8));
         mainPanel.setBorder(new EmptyBorder(10,10,10,10));
@@ -47,23 +48,23 @@ public class LoginDialog extends JDialog {
             public void actionPerformed(ActionEvent e) {
                 String id = tfUser.getText().trim();
                 String pass = new String(pf.getPassword());
-                boolean ok = false;
                 // admin hard-coded credentials
                 if (ADMIN_USER.equals(id) && ADMIN_PASS.equals(pass)) {
-                    role = "manager"; ok = true;
-                } else {
-                    role = "member";
-                    if (id.length() > 0) {
-                        try {
-                            if (lib instanceof SqlLibrary) ok = ((SqlLibrary) lib).memberExists(id);
-                            else ok = lib.memberExists(id);
-                        } catch (Exception ex) { ok = false; }
-                    }
-                    if (!ok) JOptionPane.showMessageDialog(LoginDialog.this, "Invalid member ID", "Login", JOptionPane.ERROR_MESSAGE);
+                    role = "manager";
+                    finish(true, id, tfUser);
+                    return;
                 }
-
-                if (ok) { succeeded = true; userId = id; dispose(); }
-                else tfUser.requestFocus();
+                role = "member";
+                if (id.length() == 0) {
+                    finish(false, id, tfUser);
+                    return;
+                }
+                // member check runs off the EDT; the button stays disabled until it answers
+                btnLogin.setEnabled(false);
+                async.memberExists(id).whenComplete((ok, ex) -> SwingUtilities.invokeLater(() -> {
+                    btnLogin.setEnabled(true);
+                    finish(ex == null && ok, id, tfUser);
+                }));
             }
         });
 
@@ -76,6 +77,12 @@ public class LoginDialog extends JDialog {
         setResizable(false); setLocationRelativeTo(parent);
     }
 
+    private void finish(boolean ok, String id, JTextField tfUser) {
+        if (ok) { succeeded = true; userId = id; dispose(); return; }
+        JOptionPane.showMessageDialog(this, "Invalid member ID", "Login", JOptionPane.ERROR_MESSAGE);
+        tfUser.requestFocus();
+    }
+
     public boolean isSucceeded() { return succeeded; }
     public String getUserId() { return userId; }
     public String getRole() { return role; }
@@ -0,0 +1,77 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// bounded least-recently-used cache with hit/miss/eviction counters
+public class LruCache<K, V> {
+    private final int capacity;
+    private final LinkedHashMap<K, V> map;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    // bumped by every invalidation; a load that raced with one is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    public LruCache(int capacity) {
+        this.capacity = capacity;
+        this.map = new LinkedHashMap<K, V>(Math.min(capacity, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() <= LruCache.this.capacity) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    public V get(K key, Function<K, V> loader) {
+        V v;
+        synchronized (map) {
+            v = map.get(key);
+        }
+        if (v != null) {
+            hits.increment();
+            return v;
+        }
+        misses.increment();
+        long gen = generation.get();
+        v = loader.apply(key);
+        if (v != null) {
+            synchronized (map) {
+                if (generation.get() == gen) map.put(key, v);
+            }
+        }
+        return v;
+    }
+
+    public void invalidate(K key) {
+        synchronized (map) {
+            generation.incrementAndGet();
+            map.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (map) {
+            generation.incrementAndGet();
+            map.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    public long hits() { return hits.sum(); }
+    public long misses() { return misses.sum(); }
+    public long evictions() { return evictions.sum(); }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits() + " misses=" + misses() + " evictions=" + evictions() + " size=" + size();
+    }
+}
@@ -0,0 +1,301 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// nightly overdue run. every active loan is due loanDays after it was borrowed; a loan still
+// out after that, as of the run's day, is overdue and owes finePerDay cents for each day late,
+// up to maxFine.
+//
+// the backend splits its active loans into key ranges (Library.loanPartitions) and the ranges
+// are worked on in parallel on a fork-join pool. each range writes its notices, in batches of
+// BATCH rows, to its own CSV file (overdue-00012.csv) through a temp file that is renamed when
+// the range is done, and the range is then recorded in a checkpoint. a rerun for the same day,
+// policy, parts and backend reuses the checkpointed ranges and skips the finished ones, so a
+// crashed or killed run picks up where it stopped and a finished one does nothing; any other
+// run starts a new checkpoint. range files the checkpoint doesn't count as finished are
+// deleted first, so no file from an earlier run is left beside the new ones.
+//
+//   java OverdueJob --backend memory|compact|sqlite --out overdue --as-of 2026-10-18 --parts 64
+//                   --loan-days 21 --fine-cents 25 --max-fine-cents 2000 --books 1000000
+public class OverdueJob {
+    private static final int CHECKPOINT_MAGIC = 0x4c49424f; // "LIBO"
+    private static final int CHECKPOINT_VERSION = 2;
+    private static final Pattern RANGE_FILE = Pattern.compile("overdue-(\\d{1,9})\\.csv(\\.tmp)?");
+    private static final int BATCH = 1000;
+    private static final String HEADER = "bookId,title,memberId,memberName,borrowDate,dueDate,daysOverdue,fineCents\n";
+
+    private final Library lib;
+    private final Path dir;
+    private final Path checkpointFile;
+    private final LocalDate asOf;
+    private final int loanDays;
+    private final int finePerDay;
+    private final int maxFine;
+    private final int parts;
+
+    // state of the run: the ranges and the totals of every finished one, by range index
+    private List<String> splits;
+    private final Map<Integer, long[]> done = new TreeMap<>();
+
+    public OverdueJob(Library lib, Path dir, LocalDate asOf) {
+        this(lib, dir, asOf, 21, 25, 2000, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public OverdueJob(Library lib, Path dir, LocalDate asOf, int loanDays, int finePerDay, int maxFine, int parts) {
+        this.lib = lib;
+        this.dir = dir;
+        this.checkpointFile = dir.resolve("overdue.checkpoint");
+        this.asOf = asOf;
+        this.loanDays = loanDays;
+        this.finePerDay = finePerDay;
+        this.maxFine = maxFine;
+        this.parts = parts;
+    }
+
+    public static final class Totals {
+        private final long scanned, overdue, fineCents;
+        private final int ranges, skipped;
+        private final double seconds;
+
+        Totals(long scanned, long overdue, long fineCents, int ranges, int skipped, double seconds) {
+            this.scanned = scanned;
+            this.overdue = overdue;
+            this.fineCents = fineCents;
+            this.ranges = ranges;
+            this.skipped = skipped;
+            this.seconds = seconds;
+        }
+
+        // loans read by this run; ranges finished by an earlier run aren't read again
+        public long getScanned() {
+            return scanned;
+        }
+
+        // the two below cover the whole run, earlier attempts included
+        public long getOverdue() {
+            return overdue;
+        }
+
+        public long getFineCents() {
+            return fineCents;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d loans in %.2f s (%.0f rows/s), %d ranges, %d already done; %d overdue, fines %d.%02d",
+                    scanned, seconds, scanned / Math.max(seconds, 1e-9), ranges, skipped, overdue, fineCents / 100, fineCents % 100);
+        }
+    }
+
+    public Totals run() throws IOException {
+        long t0 = System.nanoTime();
+        Files.createDirectories(dir);
+        if (!loadCheckpoint()) {
+            splits = lib.loanPartitions(parts);
+            done.clear();
+            saveCheckpoint();
+        }
+        clearUnfinished();
+        int ranges = splits.size() + 1;
+        int skipped = done.size();
+        List<Callable<long[]>> todo = new ArrayList<>();
+        for (int i = 0; i < ranges; i++) {
+            int range = i;
+            if (!done.containsKey(range)) todo.add(() -> runRange(range));
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(todo.size(), Runtime.getRuntime().availableProcessors())));
+        long scanned = 0;
+        int failed = 0;
+        // the first range's failure becomes the cause, the others are suppressed on it
+        Throwable cause = null;
+        try {
+            for (Future<long[]> f : pool.invokeAll(todo)) {
+                try {
+                    scanned += f.get()[0];
+                } catch (ExecutionException e) {
+                    Throwable c = unwrap(e.getCause());
+                    c.printStackTrace();
+                    failed++;
+                    if (cause == null) cause = c;
+                    else cause.addSuppressed(c);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted", e);
+                }
+            }
+        } finally { pool.shutdown(); }
+        if (failed > 0) throw new IOException(failed + " of " + ranges + " ranges failed; run again to retry them", cause);
+        long overdue = 0, fines = 0;
+        synchronized (this) {
+            for (long[] c : done.values()) {
+                overdue += c[1];
+                fines += c[2];
+            }
+        }
+        return new Totals(scanned, overdue, fines, ranges, skipped, (System.nanoTime() - t0) / 1e9);
+    }
+
+    // the pool hands a range's IOException back wrapped in plain RuntimeExceptions, one for
+    // the Callable adapter and one for the rethrow across threads
+    private static Throwable unwrap(Throwable t) {
+        while (t.getClass() == RuntimeException.class && t.getCause() != null) t = t.getCause();
+        return t;
+    }
+
+    // returns {loans scanned, overdue, fine cents}
+    private long[] runRange(int range) throws IOException {
+        String from = range == 0 ? null : splits.get(range - 1);
+        String to = range == splits.size() ? null : splits.get(range);
+        Path file = dir.resolve(String.format(Locale.ROOT, "overdue-%05d.csv", range));
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long[] counts = new long[3];
+        long today = asOf.toEpochDay();
+        try (Writer w = new OutputStreamWriter(Files.newOutputStream(tmp), StandardCharsets.UTF_8)) {
+            StringBuilder batch = new StringBuilder(BATCH * 96).append(HEADER);
+            int[] rows = {0};
+            lib.exportLoans(from, to, (bookId, title, author, memberId, memberName, borrowDate) -> {
+                counts[0]++;
+                long due = borrowDate.toEpochDay() + loanDays;
+                long late = today - due;
+                if (late <= 0) return;
+                long fine = Math.min(maxFine, late * finePerDay);
+                counts[1]++;
+                counts[2] += fine;
+                csv(batch, bookId).append(',');
+                csv(batch, title).append(',');
+                csv(batch, memberId).append(',');
+                csv(batch, memberName).append(',');
+                batch.append(borrowDate).append(',').append(LocalDate.ofEpochDay(due)).append(',')
+                        .append(late).append(',').append(fine).append('\n');
+                if (++rows[0] == BATCH) {
+                    w.append(batch);
+                    batch.setLength(0);
+                    rows[0] = 0;
+                }
+            });
+            w.append(batch);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            done.put(range, counts);
+            saveCheckpoint();
+        }
+        return counts;
+    }
+
+    private static StringBuilder csv(StringBuilder sb, String s) {
+        if (s == null) return sb;
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) return sb.append(s);
+        return sb.append('"').append(s.replace("\"", "\"\"")).append('"');
+    }
+
+    // ---- checkpoint ----
+
+    // true if there is a checkpoint for this day, policy, parts and backend; its ranges and
+    // finished ranges are loaded. ranges split by another backend, or into another number of
+    // parts, aren't resumed
+    private boolean loadCheckpoint() throws IOException {
+        try (DataInputStream s = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointFile)))) {
+            if (s.readInt() != CHECKPOINT_MAGIC) throw new IOException("not an overdue checkpoint: " + checkpointFile);
+            if (s.readInt() != CHECKPOINT_VERSION) return false;
+            if (s.readLong() != asOf.toEpochDay() || s.readInt() != loanDays || s.readInt() != finePerDay || s.readInt() != maxFine) return false;
+            if (s.readInt() != parts || !s.readUTF().equals(lib.getClass().getName())) return false;
+            int n = s.readInt();
+            List<String> stored = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) stored.add(s.readUTF());
+            int finished = s.readInt();
+            done.clear();
+            for (int i = 0; i < finished; i++) done.put(s.readInt(), new long[] {s.readLong(), s.readLong(), s.readLong()});
+            splits = stored;
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    // range files, finished or temp, of every range the checkpoint doesn't record as done: left
+    // by an earlier run, or by a crash between a rename and its checkpoint. runs after the
+    // checkpoint is saved, so a crash in between can't leave a checkpoint missing its files
+    private void clearUnfinished() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "overdue-*.csv*")) {
+            for (Path f : files) {
+                Matcher m = RANGE_FILE.matcher(f.getFileName().toString());
+                if (m.matches() && !done.containsKey(Integer.parseInt(m.group(1)))) Files.deleteIfExists(f);
+            }
+        }
+    }
+
+    // caller holds the lock, or no range is running yet
+    private void saveCheckpoint() throws IOException {
+        Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (DataOutputStream s = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            s.writeInt(CHECKPOINT_MAGIC);
+            s.writeInt(CHECKPOINT_VERSION);
+            s.writeLong(asOf.toEpochDay());
+            s.writeInt(loanDays);
+            s.writeInt(finePerDay);
+            s.writeInt(maxFine);
+            s.writeInt(parts);
+            s.writeUTF(lib.getClass().getName());
+            s.writeInt(splits.size());
+            for (String k : splits) s.writeUTF(k);
+            s.writeInt(done.size());
+            for (Map.Entry<Integer, long[]> e : done.entrySet()) {
+                s.writeInt(e.getKey());
+                for (long v : e.getValue()) s.writeLong(v);
+            }
+        }
+        Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = LibraryBenchmark.parse(args);
+        int books = Integer.parseInt(opt.getOrDefault("books", "0"));
+        String backend = opt.getOrDefault("backend", "memory");
+        Library lib = "sqlite".equals(backend) ? new SqlLibrary(opt.getOrDefault("db", "jdbc:sqlite:library.db"))
+                : "compact".equals(backend) ? new CompactLibrary(books, 1000)
+                : new Library(books, 1000);
+        LocalDate asOf = LocalDate.parse(opt.getOrDefault("as-of", LocalDate.now().toString()));
+        if (books > 0 && lib.countBooks() == 0) {
+            HttpLoadGenerator.seed(lib, books);
+            // a third of the books out on loan, borrowed up to 60 days back (SqlLibrary has no
+            // dated borrow, so its loans all start today)
+            for (int i = 0; i < books; i += 3) {
+                if (lib instanceof SqlLibrary) lib.borrowBook("B" + i, "M" + i % 1000);
+                else lib.borrowBook("B" + i, "M" + i % 1000, asOf.minusDays(i % 61));
+            }
+        }
+        OverdueJob job = new OverdueJob(lib, Paths.get(opt.getOrDefault("out", "overdue")), asOf,
+                Integer.parseInt(opt.getOrDefault("loan-days", "21")), Integer.parseInt(opt.getOrDefault("fine-cents", "25")),
+                Integer.parseInt(opt.getOrDefault("max-fine-cents", "2000")),
+                Integer.parseInt(opt.getOrDefault("parts", "" + 4 * Runtime.getRuntime().availableProcessors())));
+        try {
+            System.out.println("OverdueJob: " + job.run());
+        } finally {
+            if (lib instanceof AutoCloseable) ((AutoCloseable) lib).close();
+        }
+    }
+}
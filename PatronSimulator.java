@@ -0,0 +1,370 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// headless "first morning of term" workload, straight against a backend with no UI or HTTP in
+// between. every patron is its own thread (virtual where the JDK has them) and runs sessions:
+// log in (memberExists, as LoginDialog does), then session-ops operations picked from the mix,
+// with an exponential think time before each one. the books patrons search for and borrow
+// follow a Zipf distribution, so a few titles are wanted by many patrons at once and borrows
+// collide; a patron only returns books it holds.
+//
+// latencies are per call, recorded after the warmup, and reported per operation with the
+// failed borrows and how many of those failed because another patron had the book. every
+// patron draws from its own random stream derived from --seed, so two runs with the same
+// options ask for the same work; --out appends the report as one JSON line for diffing runs.
+//
+//   java PatronSimulator --backend memory|compact|snapshot|sqlite --db jdbc:sqlite:library.db
+//                        --books 100000 --patrons 500 --mix search:50,borrow:30,return:20
+//                        --zipf 1.0 --think-ms 200 --session-ops 10 --warmup 5 --seconds 30
+//                        --seed 42 --out patrons.jsonl
+public class PatronSimulator {
+    private static final String[] OPS = {"login", "search", "borrow", "return"};
+    private static final int LOGIN = 0, SEARCH = 1, BORROW = 2, RETURN = 3;
+    private static final int MEMBERS = 1000;
+    private static final int SEARCH_LIMIT = 20;
+
+    private final Library lib;
+    private final int books;
+    private final int patrons;
+    // cumulative weights of search, borrow, return
+    private final int[] mix;
+    private final double[] zipf;
+    private final long thinkNanos;
+    private final int sessionOps;
+    private final long seed;
+
+    private final LatencyHistogram[] latency = new LatencyHistogram[OPS.length];
+    private final LongAdder borrowFailed = new LongAdder();
+    private final LongAdder borrowContended = new LongAdder();
+    private final LongAdder returnFailed = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile boolean measuring;
+    private volatile boolean stopping;
+
+    public PatronSimulator(Library lib, int books, int patrons, int[] mix, double zipfExponent,
+                           long thinkMillis, int sessionOps, long seed) {
+        this.lib = lib;
+        this.books = books;
+        this.patrons = patrons;
+        this.mix = new int[] {mix[0], mix[0] + mix[1], mix[0] + mix[1] + mix[2]};
+        this.zipf = zipfCdf(books, zipfExponent);
+        this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+        this.sessionOps = sessionOps;
+        this.seed = seed;
+        for (int i = 0; i < OPS.length; i++) latency[i] = new LatencyHistogram();
+    }
+
+    // ---- popularity ----
+
+    // cumulative probabilities of popularity ranks 1..n, p(k) ~ 1 / k^s
+    private static double[] zipfCdf(int n, double s) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) cdf[k] = sum += 1 / Math.pow(k + 1, s);
+        for (int k = 0; k < n; k++) cdf[k] /= sum;
+        return cdf;
+    }
+
+    // a book index drawn by popularity. ranks are spread over the catalog by a fixed
+    // permutation (multiplying by a prime), so the bestsellers aren't simply B0, B1, ...
+    private int pickBook(SplittableRandom rnd) {
+        int rank = Arrays.binarySearch(zipf, rnd.nextDouble());
+        if (rank < 0) rank = Math.min(-rank - 1, books - 1);
+        return (int) ((rank * 2654435761L) % books);
+    }
+
+    // ---- patrons ----
+
+    private final class Patron implements Runnable {
+        private final String memberId;
+        private final SplittableRandom rnd;
+        private final List<String> held = new ArrayList<>();
+
+        Patron(int n) {
+            memberId = "M" + n % MEMBERS;
+            rnd = new SplittableRandom(seed * 1_000_003L + n);
+        }
+
+        @Override
+        public void run() {
+            try {
+                // spread the first logins over one think time instead of all at once
+                think();
+                while (!stopping) {
+                    if (!timed(LOGIN, () -> lib.memberExists(memberId))) {
+                        System.err.println("PatronSimulator: no member " + memberId + ", patron stops");
+                        errors.increment();
+                        return;
+                    }
+                    for (int i = 0; i < sessionOps && !stopping; i++) {
+                        think();
+                        if (!stopping) step();
+                    }
+                    think();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                errors.increment();
+            }
+        }
+
+        private void step() {
+            int pick = rnd.nextInt(mix[2]);
+            if (pick < mix[0]) {
+                // a partial title: every title carries its book's number
+                String query = Integer.toString(pickBook(rnd));
+                timed(SEARCH, () -> !lib.search(query, SEARCH_LIMIT).isEmpty());
+            } else if (pick < mix[1] || held.isEmpty()) {
+                String id = "B" + pickBook(rnd);
+                if (timed(BORROW, () -> lib.borrowBook(id, memberId))) {
+                    held.add(id);
+                } else if (measuring) {
+                    borrowFailed.increment();
+                    // out of the timing: was it someone else's?
+                    if (!held.contains(id) && lib.findBook(id).map(b -> !b.isAvailable()).orElse(false)) borrowContended.increment();
+                }
+            } else {
+                String id = held.remove(rnd.nextInt(held.size()));
+                if (!timed(RETURN, () -> lib.returnBook(id)) && measuring) returnFailed.increment();
+            }
+        }
+
+        private void think() throws InterruptedException {
+            if (thinkNanos <= 0) return;
+            // exponential, capped at ten times the mean
+            long nanos = (long) Math.min(10.0 * thinkNanos, -Math.log(1 - rnd.nextDouble()) * thinkNanos);
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+
+    private interface Call {
+        boolean run();
+    }
+
+    private boolean timed(int op, Call call) {
+        long t0 = System.nanoTime();
+        boolean ok = call.run();
+        if (measuring) latency[op].record(System.nanoTime() - t0);
+        return ok;
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively, as in LibraryServer;
+    // without it every patron gets a platform thread, since a bounded pool would leave patrons
+    // waiting for a thread instead of thinking
+    private static ExecutorService patronExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger n = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "patron-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // ---- run ----
+
+    public static final class Report {
+        private final Map<String, Object> config;
+        private final double seconds;
+        private final String[] ops;
+        private final long[] counts;
+        // p50, p95, p99, p99.9, max per op, nanoseconds
+        private final long[][] percentiles;
+        private final long borrowFailed, borrowContended, returnFailed, errors;
+
+        Report(Map<String, Object> config, double seconds, String[] ops, long[] counts, long[][] percentiles,
+               long borrowFailed, long borrowContended, long returnFailed, long errors) {
+            this.config = config;
+            this.seconds = seconds;
+            this.ops = ops;
+            this.counts = counts;
+            this.percentiles = percentiles;
+            this.borrowFailed = borrowFailed;
+            this.borrowContended = borrowContended;
+            this.returnFailed = returnFailed;
+            this.errors = errors;
+        }
+
+        private long total() {
+            long n = 0;
+            for (long c : counts) n += c;
+            return n;
+        }
+
+        private long borrows() {
+            return counts[BORROW];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("PatronSimulator ").append(config).append('\n');
+            sb.append(String.format(Locale.ROOT, "%d ops in %.1f s, %.0f ops/s%n", total(), seconds, total() / seconds));
+            sb.append(String.format(Locale.ROOT, "%-8s %10s %10s %9s %9s %9s %9s %9s%n",
+                    "op", "count", "ops/s", "p50 ms", "p95 ms", "p99 ms", "p99.9 ms", "max ms"));
+            for (int i = 0; i < ops.length; i++) {
+                long[] p = percentiles[i];
+                sb.append(String.format(Locale.ROOT, "%-8s %10d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                        ops[i], counts[i], counts[i] / seconds, p[0] / 1e6, p[1] / 1e6, p[2] / 1e6, p[3] / 1e6, p[4] / 1e6));
+            }
+            sb.append(String.format(Locale.ROOT, "borrows: %d failed of %d (%.2f%%), %d of them because another patron had the book (contention %.2f%%)%n",
+                    borrowFailed, borrows(), pct(borrowFailed, borrows()), borrowContended, pct(borrowContended, borrows())));
+            sb.append(String.format(Locale.ROOT, "returns failed: %d, errors: %d", returnFailed, errors));
+            return sb.toString();
+        }
+
+        private static double pct(long n, long of) {
+            return of == 0 ? 0 : 100.0 * n / of;
+        }
+
+        // one line; the config comes first so runs with different options are told apart
+        public String toJson() {
+            StringBuilder sb = new StringBuilder("{");
+            for (Map.Entry<String, Object> e : config.entrySet()) {
+                sb.append('"').append(e.getKey()).append("\":");
+                Object v = e.getValue();
+                if (v instanceof Number) sb.append(v);
+                else sb.append('"').append(v).append('"');
+                sb.append(',');
+            }
+            sb.append(String.format(Locale.ROOT, "\"seconds\":%.3f,\"opsPerSec\":%.1f,\"ops\":{", seconds, total() / seconds));
+            for (int i = 0; i < ops.length; i++) {
+                long[] p = percentiles[i];
+                if (i > 0) sb.append(',');
+                sb.append(String.format(Locale.ROOT,
+                        "\"%s\":{\"count\":%d,\"opsPerSec\":%.1f,\"p50Ns\":%d,\"p95Ns\":%d,\"p99Ns\":%d,\"p999Ns\":%d,\"maxNs\":%d}",
+                        ops[i], counts[i], counts[i] / seconds, p[0], p[1], p[2], p[3], p[4]));
+            }
+            sb.append(String.format(Locale.ROOT, "},\"borrowFailed\":%d,\"borrowContended\":%d,\"returnFailed\":%d,\"errors\":%d}",
+                    borrowFailed, borrowContended, returnFailed, errors));
+            return sb.toString();
+        }
+    }
+
+    // runs every patron for warmup + seconds and reports on the last seconds
+    public Report run(double warmup, double seconds, Map<String, Object> config) throws InterruptedException {
+        ExecutorService executor = patronExecutor();
+        CountDownLatch done = new CountDownLatch(patrons);
+        for (int i = 0; i < patrons; i++) {
+            Patron p = new Patron(i);
+            executor.execute(() -> {
+                try {
+                    p.run();
+                } finally { done.countDown(); }
+            });
+        }
+        Thread.sleep((long) (warmup * 1000));
+        measuring = true;
+        long t0 = System.nanoTime();
+        Thread.sleep((long) (seconds * 1000));
+        measuring = false;
+        double elapsed = (System.nanoTime() - t0) / 1e9;
+        stopping = true;
+        // patrons wake from their think time and stop; at worst ten think times
+        done.await(Math.max(30_000, 10 * TimeUnit.NANOSECONDS.toMillis(thinkNanos)), TimeUnit.MILLISECONDS);
+        executor.shutdownNow();
+
+        long[] counts = new long[OPS.length];
+        long[][] pcts = new long[OPS.length][];
+        for (int i = 0; i < OPS.length; i++) {
+            LatencyHistogram h = latency[i];
+            counts[i] = h.count();
+            pcts[i] = new long[] {h.percentile(50), h.percentile(95), h.percentile(99), h.percentile(99.9), h.max()};
+        }
+        return new Report(config, elapsed, OPS, counts, pcts, borrowFailed.sum(), borrowContended.sum(), returnFailed.sum(), errors.sum());
+    }
+
+    // "search:50,borrow:30,return:20" -> {50, 30, 20}
+    static int[] parseMix(String s) {
+        int[] w = new int[3];
+        for (String part : s.split(",")) {
+            String[] kv = part.trim().split(":");
+            int i = Arrays.asList(OPS).indexOf(kv[0].trim());
+            if (i < SEARCH || kv.length != 2) throw new IllegalArgumentException("bad mix entry " + part + ", expected search|borrow|return:weight");
+            w[i - SEARCH] = Integer.parseInt(kv[1].trim());
+        }
+        if (w[0] + w[1] + w[2] <= 0) throw new IllegalArgumentException("mix has no weight: " + s);
+        return w;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = LibraryBenchmark.parse(args);
+        String backend = opt.getOrDefault("backend", "memory");
+        int books = Integer.parseInt(opt.getOrDefault("books", "100000"));
+        int patrons = Integer.parseInt(opt.getOrDefault("patrons", "500"));
+        String mix = opt.getOrDefault("mix", "search:50,borrow:30,return:20");
+        double zipf = Double.parseDouble(opt.getOrDefault("zipf", "1.0"));
+        long think = Long.parseLong(opt.getOrDefault("think-ms", "200"));
+        int sessionOps = Integer.parseInt(opt.getOrDefault("session-ops", "10"));
+        double warmup = Double.parseDouble(opt.getOrDefault("warmup", "5"));
+        double seconds = Double.parseDouble(opt.getOrDefault("seconds", "30"));
+        long seed = Long.parseLong(opt.getOrDefault("seed", "42"));
+
+        Library lib = "sqlite".equals(backend) ? new SqlLibrary(opt.getOrDefault("db", "jdbc:sqlite:library.db"))
+                : "compact".equals(backend) ? new CompactLibrary(books, MEMBERS)
+                : "snapshot".equals(backend) ? new SnapshotLibrary(books)
+                : new Library(books, MEMBERS);
+        try {
+            // an existing database keeps its catalog, which has to be a seeded one (B0.., M0..)
+            if (lib.countBooks() == 0) HttpLoadGenerator.seed(lib, books);
+            else books = lib.countBooks();
+
+            Map<String, Object> config = new LinkedHashMap<>();
+            config.put("backend", backend);
+            config.put("books", books);
+            config.put("patrons", patrons);
+            config.put("mix", mix);
+            config.put("zipf", zipf);
+            config.put("thinkMs", think);
+            config.put("sessionOps", sessionOps);
+            config.put("warmup", warmup);
+            config.put("seed", seed);
+            config.put("threads", threadKind());
+            config.put("cpus", Runtime.getRuntime().availableProcessors());
+            config.put("java", System.getProperty("java.version"));
+
+            PatronSimulator sim = new PatronSimulator(lib, books, patrons, parseMix(mix), zipf, think, sessionOps, seed);
+            Report report = sim.run(warmup, seconds, config);
+            System.out.println(report);
+            String out = opt.get("out");
+            if (out != null) append(Paths.get(out), report.toJson());
+        } finally {
+            if (lib instanceof AutoCloseable) ((AutoCloseable) lib).close();
+        }
+    }
+
+    private static String threadKind() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return "virtual";
+        } catch (NoSuchMethodException e) {
+            return "platform";
+        }
+    }
+
+    private static void append(Path file, String line) throws IOException {
+        Files.write(file, (line + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,261 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// immutable sorted map: an AVL tree whose updates copy only the path from the root to the
+// changed node and share every other node with the old version, so each put/remove costs
+// O(log n) new nodes and every version ever handed out stays valid and unchanged. nodes also
+// carry their subtree size, which makes size() O(1) and positional access O(log n).
+//
+// null keys and values are not allowed.
+public final class PersistentSortedMap<K extends Comparable<? super K>, V> implements Iterable<V> {
+    private static final PersistentSortedMap<?, ?> EMPTY = new PersistentSortedMap<>(null);
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final Node<K, V> left, right;
+        final int height, size;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    private final Node<K, V> root;
+
+    private PersistentSortedMap(Node<K, V> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<? super K>, V> PersistentSortedMap<K, V> empty() {
+        return (PersistentSortedMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    // null if absent
+    public V get(K key) {
+        Node<K, V> n = root;
+        while (n != null) {
+            int c = key.compareTo(n.key);
+            if (c == 0) return n.value;
+            n = c < 0 ? n.left : n.right;
+        }
+        return null;
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    // a map with key set to value; this one is unchanged
+    public PersistentSortedMap<K, V> plus(K key, V value) {
+        if (key == null || value == null) throw new NullPointerException();
+        Node<K, V> r = put(root, key, value);
+        return r == root ? this : new PersistentSortedMap<>(r);
+    }
+
+    // a map without key; this one if key isn't in it
+    public PersistentSortedMap<K, V> minus(K key) {
+        Node<K, V> r = remove(root, key);
+        return r == root ? this : new PersistentSortedMap<>(r);
+    }
+
+    // the key at position i in key order
+    public K keyAt(int i) {
+        if (i < 0 || i >= size()) throw new IndexOutOfBoundsException("" + i);
+        Node<K, V> n = root;
+        while (true) {
+            int l = size(n.left);
+            if (i == l) return n.key;
+            if (i < l) {
+                n = n.left;
+            } else {
+                i -= l + 1;
+                n = n.right;
+            }
+        }
+    }
+
+    // values in key order
+    @Override
+    public Iterator<V> iterator() {
+        return new Values<>(root, null, false, null, 0);
+    }
+
+    // values of keys in [from, to) in key order, or (from, to) if fromInclusive is false; null
+    // bounds are open
+    public Iterable<V> values(K from, boolean fromInclusive, K to) {
+        return () -> new Values<>(root, from, fromInclusive, to, 0);
+    }
+
+    // values in key order starting at position offset
+    public Iterable<V> valuesFrom(int offset) {
+        return () -> new Values<>(root, null, false, null, Math.max(0, offset));
+    }
+
+    public Stream<V> stream() {
+        return StreamSupport.stream(Spliterators.spliterator(iterator(), size(),
+                Spliterator.ORDERED | Spliterator.SIZED | Spliterator.NONNULL | Spliterator.IMMUTABLE), false);
+    }
+
+    // ---- tree ----
+
+    private static int height(Node<?, ?> n) {
+        return n == null ? 0 : n.height;
+    }
+
+    private static int size(Node<?, ?> n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> put(Node<K, V> n, K key, V value) {
+        if (n == null) return new Node<>(key, value, null, null);
+        int c = key.compareTo(n.key);
+        if (c == 0) return n.value == value ? n : new Node<>(key, value, n.left, n.right);
+        if (c < 0) {
+            Node<K, V> l = put(n.left, key, value);
+            return l == n.left ? n : balance(n.key, n.value, l, n.right);
+        }
+        Node<K, V> r = put(n.right, key, value);
+        return r == n.right ? n : balance(n.key, n.value, n.left, r);
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> remove(Node<K, V> n, K key) {
+        if (n == null) return null;
+        int c = key.compareTo(n.key);
+        if (c < 0) {
+            Node<K, V> l = remove(n.left, key);
+            return l == n.left ? n : balance(n.key, n.value, l, n.right);
+        }
+        if (c > 0) {
+            Node<K, V> r = remove(n.right, key);
+            return r == n.right ? n : balance(n.key, n.value, n.left, r);
+        }
+        if (n.left == null) return n.right;
+        if (n.right == null) return n.left;
+        // replaced by its successor, the smallest node on the right
+        Node<K, V> min = n.right;
+        while (min.left != null) min = min.left;
+        return balance(min.key, min.value, n.left, removeMin(n.right));
+    }
+
+    private static <K, V> Node<K, V> removeMin(Node<K, V> n) {
+        if (n.left == null) return n.right;
+        return balance(n.key, n.value, removeMin(n.left), n.right);
+    }
+
+    // a node for key/value over l and r, whose heights differ by at most 2, rotated back into
+    // AVL shape
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> l, Node<K, V> r) {
+        int hl = height(l), hr = height(r);
+        if (hl > hr + 1) {
+            if (height(l.left) >= height(l.right)) {
+                return new Node<>(l.key, l.value, l.left, new Node<>(key, value, l.right, r));
+            }
+            Node<K, V> lr = l.right;
+            return new Node<>(lr.key, lr.value, new Node<>(l.key, l.value, l.left, lr.left), new Node<>(key, value, lr.right, r));
+        }
+        if (hr > hl + 1) {
+            if (height(r.right) >= height(r.left)) {
+                return new Node<>(r.key, r.value, new Node<>(key, value, l, r.left), r.right);
+            }
+            Node<K, V> rl = r.left;
+            return new Node<>(rl.key, rl.value, new Node<>(key, value, l, rl.left), new Node<>(r.key, r.value, rl.right, r.right));
+        }
+        return new Node<>(key, value, l, r);
+    }
+
+    // ---- iteration ----
+
+    // in-order walk over the nodes from a lower bound (a key or a position) up to an exclusive
+    // upper key, with an explicit stack of the nodes still to visit
+    private static class Nodes<K extends Comparable<? super K>, V> implements Iterator<Node<K, V>> {
+        private final ArrayDeque<Node<K, V>> stack = new ArrayDeque<>();
+        private final K to;
+
+        Nodes(Node<K, V> root, K from, boolean fromInclusive, K to, int offset) {
+            this.to = to;
+            Node<K, V> n = root;
+            if (from != null) {
+                // push the path to the first key past the bound, skipping smaller subtrees
+                while (n != null) {
+                    int c = from.compareTo(n.key);
+                    if (c < 0 || c == 0 && fromInclusive) {
+                        stack.push(n);
+                        n = c == 0 ? null : n.left;
+                    } else {
+                        n = n.right;
+                    }
+                }
+            } else {
+                while (n != null) {
+                    int l = size(n.left);
+                    if (offset < l) {
+                        stack.push(n);
+                        n = n.left;
+                    } else if (offset == l) {
+                        stack.push(n);
+                        break;
+                    } else {
+                        offset -= l + 1;
+                        n = n.right;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (stack.isEmpty()) return false;
+            if (to != null && stack.peek().key.compareTo(to) >= 0) {
+                stack.clear();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Node<K, V> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Node<K, V> n = stack.pop();
+            for (Node<K, V> c = n.right; c != null; c = c.left) stack.push(c);
+            return n;
+        }
+    }
+
+    private static final class Values<K extends Comparable<? super K>, V> implements Iterator<V> {
+        private final Nodes<K, V> nodes;
+
+        Values(Node<K, V> root, K from, boolean fromInclusive, K to, int offset) {
+            nodes = new Nodes<>(root, from, fromInclusive, to, offset);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nodes.hasNext();
+        }
+
+        @Override
+        public V next() {
+            return nodes.next().value;
+        }
+    }
+}
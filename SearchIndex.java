@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// trigram inverted index over book titles and authors, kept up to date by Library.addBook.
+// writers are serialized, searches run lock-free against the concurrent maps
+public class SearchIndex {
+    private static final int GRAM = 3;
+
+    private final Map<String, Entry> entries;
+    private final Map<String, Set<String>> postings;
+    // set while a background rebuild runs; searches scan it instead of the partial index
+    private volatile Collection<Book> rebuilding;
+
+    public SearchIndex() {
+        this(16);
+    }
+
+    public SearchIndex(int expectedBooks) {
+        entries = new ConcurrentHashMap<>(expectedBooks);
+        postings = new ConcurrentHashMap<>(Math.min(expectedBooks, 1 << 16));
+    }
+
+    private static class Entry {
+        final Book book;
+        final String title;
+        final String author;
+
+        Entry(Book book) {
+            this.book = book;
+            this.title = book.getTitle().toLowerCase();
+            this.author = book.getAuthor().toLowerCase();
+        }
+
+        // recomputed when needed rather than kept, they would dwarf the entry itself
+        Set<String> grams() {
+            Set<String> grams = new HashSet<>();
+            addGrams(title, grams);
+            addGrams(author, grams);
+            return grams;
+        }
+
+        boolean matches(String q) {
+            return title.contains(q) || author.contains(q);
+        }
+    }
+
+    private static void addGrams(String s, Set<String> out) {
+        for (int i = 0; i + GRAM <= s.length(); i++) out.add(s.substring(i, i + GRAM));
+    }
+
+    public synchronized void add(Book book) {
+        remove(book.getId());
+        Entry e = new Entry(book);
+        entries.put(book.getId(), e);
+        for (String g : e.grams()) postings.computeIfAbsent(g, k -> ConcurrentHashMap.newKeySet()).add(book.getId());
+    }
+
+    // searches scan source until rebuildInBackground is called; for restores that add more
+    // than the books before the index is worth building
+    public void deferRebuild(Collection<Book> source) {
+        rebuilding = source;
+    }
+
+    // indexes every book of source on a background thread (books added or replaced meanwhile
+    // through add() win over the copy being indexed). search() scans source until it's done
+    public void rebuildInBackground(Collection<Book> source) {
+        rebuilding = source;
+        Thread t = new Thread(() -> {
+            for (Book b : source) addIfAbsent(b);
+            rebuilding = null;
+        }, "library-search-index");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private synchronized void addIfAbsent(Book book) {
+        if (!entries.containsKey(book.getId())) add(book);
+    }
+
+    public synchronized void remove(String id) {
+        Entry old = entries.remove(id);
+        if (old == null) return;
+        for (String g : old.grams()) {
+            Set<String> ids = postings.get(g);
+            if (ids == null) continue;
+            ids.remove(id);
+            if (ids.isEmpty()) postings.remove(g);
+        }
+    }
+
+    public List<Book> search(String query, int limit) {
+        List<Book> out = new ArrayList<>();
+        String q = query == null ? "" : query.trim().toLowerCase();
+        Collection<Book> source = rebuilding;
+        if (source != null) {
+            for (Book b : source) {
+                if (out.size() >= limit) break;
+                if (q.isEmpty() || b.getTitle().toLowerCase().contains(q) || b.getAuthor().toLowerCase().contains(q)) out.add(b);
+            }
+            return out;
+        }
+        if (q.length() < GRAM) {
+            // too short for the index, scan (stops as soon as the limit is reached)
+            for (Entry e : entries.values()) {
+                if (out.size() >= limit) break;
+                if (q.isEmpty() || e.matches(q)) out.add(e.book);
+            }
+            return out;
+        }
+        Set<String> grams = new HashSet<>();
+        addGrams(q, grams);
+        Set<String> smallest = null;
+        for (String g : grams) {
+            Set<String> ids = postings.get(g);
+            if (ids == null) return out;
+            if (smallest == null || ids.size() < smallest.size()) smallest = ids;
+        }
+        for (String id : smallest) {
+            if (out.size() >= limit) break;
+            Entry e = entries.get(id);
+            if (e != null && e.matches(q)) out.add(e.book);
+        }
+        return out;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
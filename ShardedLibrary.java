@@ -0,0 +1,416 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// catalog partitioned over several backends (one SqlLibrary file per branch, say). books and
+// their loans live on the shard picked by the router, by branch prefix or by hashed book id;
+// members are registered on every shard so any shard can check a borrower.
+//
+// point operations go to one shard. listings, search and aggregates run on all shards at once
+// on a fork-join pool; search takes shard answers as they arrive and stops at the limit.
+// keyset pages are merged by id; other listings come back grouped by shard.
+public class ShardedLibrary extends Library implements AutoCloseable {
+    private final List<Library> shards;
+    private final ToIntFunction<String> router;
+    private final ForkJoinPool pool;
+
+    // routes by hashed book id
+    public ShardedLibrary(List<Library> shards) {
+        this(shards, hashed(shards.size()));
+    }
+
+    public ShardedLibrary(List<Library> shards, ToIntFunction<String> router) {
+        if (shards.isEmpty()) throw new IllegalArgumentException("no shards");
+        this.shards = new ArrayList<>(shards);
+        this.router = router;
+        // shard calls block on JDBC, so size for the shards rather than for the cores
+        this.pool = new ForkJoinPool(Math.max(shards.size(), Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static ToIntFunction<String> hashed(int shards) {
+        // golden-ratio multiply spreads ids that differ only in their last characters
+        return id -> Math.floorMod(id.hashCode() * 0x9E3779B9, shards);
+    }
+
+    // ids like "NORTH-123" go to the shard of their branch (position in branches); ids without
+    // a known branch prefix are hashed
+    public static ToIntFunction<String> byBranch(List<String> branches) {
+        ToIntFunction<String> fallback = hashed(branches.size());
+        return id -> {
+            int dash = id.indexOf('-');
+            int shard = dash < 0 ? -1 : branches.indexOf(id.substring(0, dash));
+            return shard >= 0 ? shard : fallback.applyAsInt(id);
+        };
+    }
+
+    public List<Library> getShards() {
+        return shards;
+    }
+
+    private Library shard(String bookId) {
+        return shards.get(router.applyAsInt(bookId));
+    }
+
+    // runs call on every shard in parallel, results in shard order
+    private <T> List<T> scatter(Function<Library, T> call) {
+        return scatterByIndex(i -> call.apply(shards.get(i)));
+    }
+
+    private <T> List<T> scatterByIndex(IntFunction<T> call) {
+        List<CompletableFuture<T>> calls = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            int shard = i;
+            calls.add(CompletableFuture.supplyAsync(() -> call.apply(shard), pool));
+        }
+        List<T> out = new ArrayList<>(shards.size());
+        for (CompletableFuture<T> c : calls) out.add(join(c));
+        return out;
+    }
+
+    // runs call on every shard in parallel and hands the answers to sink as they arrive, until
+    // sink returns false; calls that haven't started by then are cancelled
+    private <T> void gather(Function<Library, T> call, Predicate<T> sink) {
+        LinkedBlockingQueue<CompletableFuture<T>> done = new LinkedBlockingQueue<>();
+        List<CompletableFuture<T>> calls = new ArrayList<>(shards.size());
+        for (Library s : shards) {
+            CompletableFuture<T> c = CompletableFuture.supplyAsync(() -> call.apply(s), pool);
+            c.whenComplete((v, e) -> done.add(c));
+            calls.add(c);
+        }
+        try {
+            for (int i = 0; i < calls.size(); i++) {
+                if (!sink.test(join(done.take()))) break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (CompletableFuture<T> c : calls) c.cancel(false);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> f) {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private static <T> List<T> concat(List<List<T>> parts) {
+        int n = 0;
+        for (List<T> p : parts) n += p.size();
+        List<T> out = new ArrayList<>(n);
+        for (List<T> p : parts) out.addAll(p);
+        return out;
+    }
+
+    // k-way merge of lists that are each sorted by cmp, stopping after limit elements
+    private static <T> List<T> merge(List<List<T>> sorted, Comparator<? super T> cmp, int limit) {
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> cmp.compare(sorted.get(a[0]).get(a[1]), sorted.get(b[0]).get(b[1])));
+        for (int i = 0; i < sorted.size(); i++) if (!sorted.get(i).isEmpty()) heads.add(new int[] {i, 0});
+        List<T> out = new ArrayList<>(Math.min(limit, 1024));
+        while (out.size() < limit && !heads.isEmpty()) {
+            int[] h = heads.poll();
+            List<T> part = sorted.get(h[0]);
+            out.add(part.get(h[1]));
+            if (++h[1] < part.size()) heads.add(h);
+        }
+        return out;
+    }
+
+    private static final Comparator<Book> BY_ID = Comparator.comparing(Book::getId);
+
+    // ---- writes ----
+
+    @Override
+    public void addBook(Book book) {
+        shard(book.getId()).addBook(book);
+    }
+
+    @Override
+    public int addBooks(Iterable<Book> batch) {
+        List<List<Book>> parts = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) parts.add(new ArrayList<>());
+        for (Book b : batch) parts.get(router.applyAsInt(b.getId())).add(b);
+        int n = 0;
+        for (int stored : scatterByIndex(i -> shards.get(i).addBooks(parts.get(i)))) n += stored;
+        return n;
+    }
+
+    @Override
+    public void registerMember(Member member) {
+        scatter(s -> { s.registerMember(member); return null; });
+    }
+
+    // stored on every shard; returns the count from the first. the batch is copied once, since
+    // the shards read it at the same time and it may only be iterable once
+    @Override
+    public int registerMembers(Iterable<Member> batch) {
+        List<Member> members = new ArrayList<>();
+        for (Member m : batch) members.add(m);
+        return scatter(s -> s.registerMembers(members)).get(0);
+    }
+
+    @Override
+    public boolean borrowBook(String bookId, String memberId) {
+        return shard(bookId).borrowBook(bookId, memberId);
+    }
+
+    @Override
+    public boolean returnBook(String bookId) {
+        return shard(bookId).returnBook(bookId);
+    }
+
+    @Override
+    public void addLibraryListener(LibraryListener listener) {
+        for (Library s : shards) s.addLibraryListener(listener);
+    }
+
+    @Override
+    public void removeLibraryListener(LibraryListener listener) {
+        for (Library s : shards) s.removeLibraryListener(listener);
+    }
+
+    // ---- point reads ----
+
+    @Override
+    public Optional<Book> findBook(String id) {
+        return shard(id).findBook(id);
+    }
+
+    @Override
+    public boolean memberExists(String id) {
+        return shards.get(0).memberExists(id);
+    }
+
+    @Override
+    public Optional<Member> findMember(String id) {
+        return shards.get(0).findMember(id);
+    }
+
+    // ---- scatter-gather reads ----
+
+    @Override
+    public int countBooks() {
+        int n = 0;
+        for (int c : scatter(Library::countBooks)) n += c;
+        return n;
+    }
+
+    // every shard's version only grows, so their sum changes whenever any of them does
+    @Override
+    public long catalogVersion() {
+        long v = 0;
+        for (long s : scatter(Library::catalogVersion)) {
+            if (s < 0) return -1;
+            v += s;
+        }
+        return v;
+    }
+
+    @Override
+    public long errorCount() {
+        long n = 0;
+        for (Library s : shards) n += s.errorCount();
+        return n;
+    }
+
+    @Override
+    public List<Book> listAllBooks() {
+        return concat(scatter(Library::listAllBooks));
+    }
+
+    @Override
+    public List<Book> listAvailableBooks() {
+        return concat(scatter(Library::listAvailableBooks));
+    }
+
+    @Override
+    public List<Book> search(String query, int limit) {
+        List<Book> out = new ArrayList<>(Math.min(limit, 1024));
+        gather(s -> s.search(query, limit), found -> {
+            for (Book b : found) {
+                if (out.size() >= limit) return false;
+                out.add(b);
+            }
+            return out.size() < limit;
+        });
+        return out;
+    }
+
+    // every shard's page is sorted by id, so the merged first limit rows are the global page
+    @Override
+    public List<Book> listBooksAfter(String afterId, int limit) {
+        return merge(scatter(s -> s.listBooksAfter(afterId, limit)), BY_ID, limit);
+    }
+
+    // each shard has to supply offset + limit rows for this; prefer listBooksAfter
+    @Override
+    public List<Book> listBooksPage(int offset, int limit) {
+        List<Book> merged = merge(scatter(s -> s.listBooksPage(0, offset + limit)), BY_ID, offset + limit);
+        return offset >= merged.size() ? new ArrayList<>() : new ArrayList<>(merged.subList(offset, merged.size()));
+    }
+
+    @Override
+    public List<Loan> listLoans() {
+        return concat(scatter(Library::listLoans));
+    }
+
+    @Override
+    public List<Loan> listLoansByMember(String memberId) {
+        return concat(scatter(s -> s.listLoansByMember(memberId)));
+    }
+
+    @Override
+    public List<Loan> listLoansBorrowedBefore(LocalDate day) {
+        List<Loan> out = concat(scatter(s -> s.listLoansBorrowedBefore(day)));
+        out.sort(Comparator.comparing(Loan::getBorrowDate));
+        return out;
+    }
+
+    // a book's loans all live on its shard, so the global top n is among the shards' top n
+    @Override
+    public List<BookCount> topBorrowed(YearMonth from, YearMonth to, int n) {
+        List<BookCount> all = concat(scatter(s -> s.topBorrowed(from, to, n)));
+        all.sort(Comparator.comparingLong(BookCount::getCount).reversed().thenComparing(BookCount::getBookId));
+        return all.size() > n ? new ArrayList<>(all.subList(0, n)) : all;
+    }
+
+    @Override
+    public Map<YearMonth, Long> circulationByMonth(YearMonth from, YearMonth to) {
+        Map<YearMonth, Long> out = new TreeMap<>();
+        for (Map<YearMonth, Long> m : scatter(s -> s.circulationByMonth(from, to))) {
+            for (Map.Entry<YearMonth, Long> e : m.entrySet()) out.merge(e.getKey(), e.getValue(), Long::sum);
+        }
+        return out;
+    }
+
+    // streams walk the shards one after another, with one shard cursor open at a time
+    @Override
+    public Stream<Book> streamBooks() {
+        return concat(Library::streamBooks);
+    }
+
+    @Override
+    public Stream<Book> streamAvailableBooks() {
+        return concat(Library::streamAvailableBooks);
+    }
+
+    @Override
+    public Stream<Loan> streamLoans() {
+        return concat(Library::streamLoans);
+    }
+
+    // not flatMap: before JDK 21 an iterator over a flatMap pulls each inner stream in whole, so
+    // a paged or exported shard would sit in memory. each shard's stream is opened when the one
+    // before it runs out and closed there; closing the result closes the one still open
+    private <T> Stream<T> concat(Function<Library, Stream<T>> open) {
+        ShardRows<T> rows = new ShardRows<>(shards.iterator(), open);
+        return StreamSupport.stream(rows, false).onClose(rows::close);
+    }
+
+    private static final class ShardRows<T> extends Spliterators.AbstractSpliterator<T> {
+        private final Iterator<Library> shards;
+        private final Function<Library, Stream<T>> open;
+        private Stream<T> stream;
+        private Spliterator<T> rows;
+
+        ShardRows(Iterator<Library> shards, Function<Library, Stream<T>> open) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.shards = shards;
+            this.open = open;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (true) {
+                if (stream == null) {
+                    if (!shards.hasNext()) return false;
+                    stream = open.apply(shards.next());
+                    rows = stream.spliterator();
+                }
+                if (rows.tryAdvance(action)) return true;
+                close();
+            }
+        }
+
+        void close() {
+            Stream<T> s = stream;
+            stream = null;
+            rows = null;
+            if (s != null) s.close();
+        }
+    }
+
+    @Override
+    public Stream<Member> streamMembers() {
+        return shards.get(0).streamMembers();
+    }
+
+    // exports go shard by shard: the sink writes one file and isn't thread-safe
+    @Override
+    public void exportBooks(BookRowSink sink) throws IOException {
+        for (Library s : shards) s.exportBooks(sink);
+    }
+
+    @Override
+    public void exportLoans(LoanRowSink sink) throws IOException {
+        for (Library s : shards) s.exportLoans(sink);
+    }
+
+    // every shard's backend orders its partition keys the same way, so one set of splits serves
+    // all of them: each shard proposes splits and every shards-th of the merged list is kept
+    @Override
+    public List<String> loanPartitions(int parts) {
+        List<String> all = concat(scatter(s -> s.loanPartitions(parts)));
+        all.sort(null);
+        List<String> out = new ArrayList<>(Math.max(0, parts - 1));
+        for (int i = shards.size() - 1; i < all.size() && out.size() < parts - 1; i += shards.size()) out.add(all.get(i));
+        return out;
+    }
+
+    @Override
+    public void exportLoans(String fromKey, String toKey, LoanRowSink sink) throws IOException {
+        for (Library s : shards) s.exportLoans(fromKey, toKey, sink);
+    }
+
+    // closes every shard; the first failure is thrown, later ones are attached to it
+    @Override
+    public void close() throws IOException {
+        pool.shutdown();
+        IOException failed = null;
+        for (Library s : shards) {
+            if (!(s instanceof AutoCloseable)) continue;
+            try {
+                ((AutoCloseable) s).close();
+            } catch (Exception e) {
+                IOException io = e instanceof IOException ? (IOException) e : new IOException("closing shard failed", e);
+                if (failed == null) failed = io;
+                else failed.addSuppressed(io);
+            }
+        }
+        if (failed != null) throw failed;
+    }
+}
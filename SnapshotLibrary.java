@@ -0,0 +1,374 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+// versioned in-memory backend. the whole library is one immutable State of persistent maps
+// (PersistentSortedMap) holding immutable books; a write builds the next State from the current
+// one, sharing everything it didn't touch, and publishes it with a CAS. readers just take the
+// current State and work on it for as long as they like: no locks, no retries, and a listing
+// or report that takes seconds sees one consistent point in time while circulation carries on.
+//
+// every read method works on the State current when it was called; snapshot() hands out a
+// read-only Library fixed at one State, for reports that make several calls.
+public class SnapshotLibrary extends Library {
+    private static final State EMPTY = new State(0, PersistentSortedMap.empty(), PersistentSortedMap.empty(),
+            PersistentSortedMap.empty(), PersistentSortedMap.empty(), PersistentSortedMap.empty());
+
+    private static final class State {
+        final long version;
+        final PersistentSortedMap<String, Book> books;
+        final PersistentSortedMap<String, Member> members;
+        // active loans by book id, and the same loans by "borrowDate|bookId" and memberId + NUL + bookId
+        final PersistentSortedMap<String, Loan> loans;
+        final PersistentSortedMap<String, Loan> loansByDate;
+        final PersistentSortedMap<String, Loan> loansByMember;
+
+        State(long version, PersistentSortedMap<String, Book> books, PersistentSortedMap<String, Member> members,
+              PersistentSortedMap<String, Loan> loans, PersistentSortedMap<String, Loan> loansByDate,
+              PersistentSortedMap<String, Loan> loansByMember) {
+            this.version = version;
+            this.books = books;
+            this.members = members;
+            this.loans = loans;
+            this.loansByDate = loansByDate;
+            this.loansByMember = loansByMember;
+        }
+
+        State withBooks(PersistentSortedMap<String, Book> b) {
+            return new State(version + 1, b, members, loans, loansByDate, loansByMember);
+        }
+
+        State withMembers(PersistentSortedMap<String, Member> m) {
+            return new State(version + 1, books, m, loans, loansByDate, loansByMember);
+        }
+    }
+
+    // a book as stored in a State: availability is fixed, a borrow or return stores a new one
+    private static final class FrozenBook extends Book {
+        private final boolean available;
+
+        FrozenBook(String id, String title, String author, boolean available) {
+            super(id, title, author);
+            this.available = available;
+        }
+
+        FrozenBook with(boolean available) {
+            return new FrozenBook(getId(), getTitle(), getAuthor(), available);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return available;
+        }
+
+        @Override
+        public void setAvailable(boolean available) {
+            throw new UnsupportedOperationException("books read from a SnapshotLibrary can't be changed");
+        }
+
+        @Override
+        public boolean tryCheckOut() {
+            throw new UnsupportedOperationException("books read from a SnapshotLibrary can't be changed");
+        }
+    }
+
+    private final AtomicReference<State> state;
+    // search goes through an index of every book ever added; hits are looked up again in the
+    // reader's State, so a search sees that State's availability and nothing newer
+    private final SearchIndex index;
+    // returned loans for the analytics; history isn't part of the versioned state
+    private final LoanHistory history;
+    private final boolean readOnly;
+
+    public SnapshotLibrary() {
+        this(16);
+    }
+
+    public SnapshotLibrary(int expectedBooks) {
+        state = new AtomicReference<>(EMPTY);
+        index = new SearchIndex(expectedBooks);
+        history = getHistory();
+        readOnly = false;
+    }
+
+    // read-only view of one State of owner
+    private SnapshotLibrary(SnapshotLibrary owner, State s) {
+        state = new AtomicReference<>(s);
+        index = owner.index;
+        history = owner.history;
+        readOnly = true;
+    }
+
+    // a read-only Library that goes on seeing the library as it is now; writes to it throw
+    public Library snapshot() {
+        return new SnapshotLibrary(this, state.get());
+    }
+
+    // number of writes published so far
+    public long version() {
+        return state.get().version;
+    }
+
+    // ---- writes ----
+
+    // applies change to the current State and publishes the result, retrying against the newer
+    // State if another write got in first. change must have no side effects, as it can run more
+    // than once; it returns null to refuse, and then nothing is published. false if refused
+    private boolean commit(UnaryOperator<State> change) {
+        if (readOnly) throw new UnsupportedOperationException("read-only snapshot");
+        while (true) {
+            State cur = state.get();
+            State next = change.apply(cur);
+            if (next == null) return false;
+            if (state.compareAndSet(cur, next)) return true;
+        }
+    }
+
+    private static FrozenBook freeze(Book b) {
+        return b instanceof FrozenBook ? (FrozenBook) b : new FrozenBook(b.getId(), b.getTitle(), b.getAuthor(), b.isAvailable());
+    }
+
+    @Override
+    public void addBook(Book book) {
+        FrozenBook b = freeze(book);
+        commit(s -> s.withBooks(s.books.plus(b.getId(), b)));
+        index.add(b);
+        events.bookAdded(b.getId(), b.isAvailable());
+    }
+
+    // the whole batch is published as one State, so readers see all of it or none
+    @Override
+    public int addBooks(Iterable<Book> batch) {
+        List<FrozenBook> frozen = new ArrayList<>();
+        for (Book b : batch) frozen.add(freeze(b));
+        commit(s -> {
+            PersistentSortedMap<String, Book> books = s.books;
+            for (FrozenBook b : frozen) books = books.plus(b.getId(), b);
+            return s.withBooks(books);
+        });
+        for (FrozenBook b : frozen) {
+            index.add(b);
+            events.bookAdded(b.getId(), b.isAvailable());
+        }
+        return frozen.size();
+    }
+
+    @Override
+    public void registerMember(Member member) {
+        commit(s -> s.withMembers(s.members.plus(member.getId(), member)));
+        events.memberRegistered(member.getId());
+    }
+
+    @Override
+    public int registerMembers(Iterable<Member> batch) {
+        List<Member> list = new ArrayList<>();
+        for (Member m : batch) list.add(m);
+        commit(s -> {
+            PersistentSortedMap<String, Member> members = s.members;
+            for (Member m : list) members = members.plus(m.getId(), m);
+            return s.withMembers(members);
+        });
+        for (Member m : list) events.memberRegistered(m.getId());
+        return list.size();
+    }
+
+    private static String dateKey(Loan loan) {
+        return loan.getBorrowDate() + "|" + loan.getBook().getId();
+    }
+
+    private static String memberKey(Loan loan) {
+        return loan.getMember().getId() + '\0' + loan.getBook().getId();
+    }
+
+    // the book, its loan and both loan indexes change in the same State, so no reader ever
+    // sees a book checked out without its loan or the other way round
+    @Override
+    protected boolean borrowBook(String bookId, String memberId, LocalDate day) {
+        boolean ok = commit(s -> {
+            Book book = s.books.get(bookId);
+            Member member = s.members.get(memberId);
+            if (book == null || member == null || !book.isAvailable()) return null;
+            FrozenBook out = ((FrozenBook) book).with(false);
+            Loan loan = new Loan(out, member, day, null);
+            return new State(s.version + 1, s.books.plus(bookId, out), s.members, s.loans.plus(bookId, loan),
+                    s.loansByDate.plus(dateKey(loan), loan), s.loansByMember.plus(memberKey(loan), loan));
+        });
+        if (ok) events.availabilityChanged(bookId, false);
+        return ok;
+    }
+
+    @Override
+    protected boolean returnBook(String bookId, LocalDate day) {
+        Loan[] returned = new Loan[1];
+        boolean ok = commit(s -> {
+            Loan loan = s.loans.get(bookId);
+            if (loan == null) return null;
+            returned[0] = loan;
+            Book book = s.books.get(bookId);
+            PersistentSortedMap<String, Book> books = book == null ? s.books : s.books.plus(bookId, ((FrozenBook) book).with(true));
+            return new State(s.version + 1, books, s.members, s.loans.minus(bookId),
+                    s.loansByDate.minus(dateKey(loan)), s.loansByMember.minus(memberKey(loan)));
+        });
+        if (!ok) return false;
+        // the published loan stays as it was; history gets a returned copy
+        Loan loan = returned[0];
+        history.append(new Loan(loan.getBook(), loan.getMember(), loan.getBorrowDate(), day));
+        events.availabilityChanged(bookId, true);
+        return true;
+    }
+
+    // ---- reads: each works on one State ----
+
+    @Override
+    public Stream<Member> streamMembers() {
+        return state.get().members.stream();
+    }
+
+    @Override
+    public List<Loan> listLoansByMember(String memberId) {
+        return list(state.get().loansByMember.values(memberId + '\0', true, memberId + '\1'), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Loan> listLoansBorrowedBefore(LocalDate day) {
+        return list(state.get().loansByDate.values(null, false, day.toString()), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Book> listAvailableBooks() {
+        List<Book> out = new ArrayList<>();
+        for (Book b : state.get().books) if (b.isAvailable()) out.add(b);
+        return out;
+    }
+
+    @Override
+    public List<Book> listAllBooks() {
+        PersistentSortedMap<String, Book> books = state.get().books;
+        return list(books, books.size());
+    }
+
+    // not live views as in Library: a stream goes on reading the State it started with
+    @Override
+    public Stream<Book> streamBooks() {
+        return state.get().books.stream();
+    }
+
+    @Override
+    public Stream<Book> streamAvailableBooks() {
+        return state.get().books.stream().filter(Book::isAvailable);
+    }
+
+    @Override
+    public Stream<Loan> streamLoans() {
+        return state.get().loans.stream();
+    }
+
+    // a consistent point-in-time export
+    @Override
+    public void exportBooks(BookRowSink sink) throws IOException {
+        for (Book b : state.get().books) sink.book(b.getId(), b.getTitle(), b.getAuthor(), b.isAvailable());
+    }
+
+    @Override
+    public void exportLoans(LoanRowSink sink) throws IOException {
+        exportLoans(null, null, sink);
+    }
+
+    // the key is "borrowDate|bookId" as in Library. splits come straight from the tree's
+    // positions, without walking the loans
+    @Override
+    public List<String> loanPartitions(int parts) {
+        PersistentSortedMap<String, Loan> byDate = state.get().loansByDate;
+        int n = byDate.size();
+        List<String> splits = new ArrayList<>(Math.max(0, parts - 1));
+        if (parts <= 1 || n == 0) return splits;
+        long step = Math.max(1, n / parts);
+        for (long i = step; i < n && splits.size() < parts - 1; i += step) splits.add(byDate.keyAt((int) i));
+        return splits;
+    }
+
+    // ranges read separately (OverdueJob) may each see a different State; use snapshot() for
+    // one view across all of them
+    @Override
+    public void exportLoans(String fromKey, String toKey, LoanRowSink sink) throws IOException {
+        for (Loan l : state.get().loansByDate.values(fromKey, true, toKey)) {
+            Book b = l.getBook();
+            Member m = l.getMember();
+            sink.loan(b.getId(), b.getTitle(), b.getAuthor(), m.getId(), m.getName(), l.getBorrowDate());
+        }
+    }
+
+    @Override
+    public List<Book> listBooksAfter(String afterId, int limit) {
+        return list(state.get().books.values(afterId, false, null), limit);
+    }
+
+    // the tree knows its subtree sizes, so the offset is found in O(log n)
+    @Override
+    public List<Book> listBooksPage(int offset, int limit) {
+        return list(state.get().books.valuesFrom(offset), limit);
+    }
+
+    private static <T> List<T> list(Iterable<T> src, int limit) {
+        List<T> out = new ArrayList<>(Math.min(limit, 1024));
+        for (T t : src) {
+            if (out.size() >= limit) break;
+            out.add(t);
+        }
+        return out;
+    }
+
+    @Override
+    public List<Loan> listLoans() {
+        PersistentSortedMap<String, Loan> loans = state.get().loans;
+        return list(loans, loans.size());
+    }
+
+    @Override
+    public List<BookCount> topBorrowed(YearMonth from, YearMonth to, int n) {
+        return history.topBorrowed(from, to, n);
+    }
+
+    @Override
+    public Map<YearMonth, Long> circulationByMonth(YearMonth from, YearMonth to) {
+        return history.circulationByMonth(from, to);
+    }
+
+    @Override
+    public List<Book> search(String query, int limit) {
+        PersistentSortedMap<String, Book> books = state.get().books;
+        List<Book> out = new ArrayList<>();
+        for (Book hit : index.search(query, limit)) {
+            Book b = books.get(hit.getId());
+            if (b != null) out.add(b);
+        }
+        return out;
+    }
+
+    @Override
+    public int countBooks() {
+        return state.get().books.size();
+    }
+
+    @Override
+    public Optional<Book> findBook(String id) {
+        return Optional.ofNullable(state.get().books.get(id));
+    }
+
+    @Override
+    public boolean memberExists(String id) {
+        return state.get().members.containsKey(id);
+    }
+
+    @Override
+    public Optional<Member> findMember(String id) {
+        return Optional.ofNullable(state.get().members.get(id));
+    }
+}
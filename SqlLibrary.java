@@ -1,144 +1,728 @@
+import java.io.IOException;
 import java.sql.*;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class SqlLibrary extends Library {
-    private final Connection conn;
+public class SqlLibrary extends Library implements AutoCloseable {
+    private static final int BATCH_SIZE = 5000;
+    private static final int FETCH_SIZE = 1000;
+    private static final String LOANS_SQL = "SELECT l.book_id, l.member_id, l.borrow_date, b.title, b.author, m.name FROM loans l JOIN books b ON l.book_id=b.id JOIN members m ON l.member_id=m.id";
+    private static final int DEFAULT_POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors());
+    // change log polling: a poll further behind than POLL_BATCH rows reports RELOAD instead,
+    // so the log only needs to keep that much (CHANGES_KEPT) for slow readers. every
+    // CHANGES_PRUNE_EVERY rows the insert trigger drops what's older
+    private static final long POLL_MILLIS = 250;
+    private static final int POLL_BATCH = 10_000;
+    private static final int CHANGES_KEPT = 20_000;
+    private static final int CHANGES_PRUNE_EVERY = 1000;
+
+    private final ConnectionPool pool;
+    // SQLite allows one writer at a time; taking turns here avoids BUSY retries between our own threads
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private boolean fts;
+    private volatile SqlListener listener;
+    private final AtomicLong errors = new AtomicLong();
+    private volatile GroupCommitQueue groupCommit;
+    private Thread changePoller;
+    private volatile boolean polling;
+
+    // told about every swallowed SQL error and every rolled back write (InstrumentedLibrary)
+    public interface SqlListener {
+        void onError(String operation, SQLException e);
+        void onRollback(String operation);
+    }
+
+    public void setSqlListener(SqlListener listener) {
+        this.listener = listener;
+    }
 
     public SqlLibrary(String url) throws SQLException {
-        conn = DriverManager.getConnection(url);
+        this(url, DEFAULT_POOL_SIZE);
+    }
+
+    public SqlLibrary(String url, int poolSize) throws SQLException {
+        pool = new ConnectionPool(url, poolSize);
         initSchema();
     }
 
     private void initSchema() throws SQLException {
-        try (Statement st = conn.createStatement()) {
+        try (ConnectionPool.PooledConnection c = pool.acquire(); Statement st = c.connection().createStatement()) {
             st.execute("CREATE TABLE IF NOT EXISTS books(id TEXT PRIMARY KEY, title TEXT, author TEXT, available INTEGER)");
             st.execute("CREATE TABLE IF NOT EXISTS members(id TEXT PRIMARY KEY, name TEXT)");
             st.execute("CREATE TABLE IF NOT EXISTS loans(book_id TEXT PRIMARY KEY, member_id TEXT, borrow_date TEXT)");
+            st.execute("CREATE INDEX IF NOT EXISTS loans_member ON loans(member_id)");
+            st.execute("CREATE INDEX IF NOT EXISTS loans_borrow_date ON loans(borrow_date)");
+            // returned loans, append-only. period is the borrow month (yyyy-MM); loan_counts holds
+            // per-period per-book totals maintained on every return so analytics never scan history
+            st.execute("CREATE TABLE IF NOT EXISTS loan_history(period TEXT, book_id TEXT, member_id TEXT, borrow_date TEXT, return_date TEXT)");
+            st.execute("CREATE INDEX IF NOT EXISTS loan_history_period ON loan_history(period, book_id)");
+            st.execute("CREATE TABLE IF NOT EXISTS loan_counts(period TEXT, book_id TEXT, count INTEGER, PRIMARY KEY(period, book_id))");
+            initChanges(st);
+            initSearch(st);
+        }
+    }
+
+    // change log written by triggers, so listeners hear about writes from every connection and
+    // every process using the database. kind: B = book added or edited, A = availability, M = member
+    private void initChanges(Statement st) throws SQLException {
+        st.execute("CREATE TABLE IF NOT EXISTS changes(seq INTEGER PRIMARY KEY, kind TEXT, id TEXT, available INTEGER)");
+        st.execute("CREATE TRIGGER IF NOT EXISTS books_changes_ai AFTER INSERT ON books BEGIN "
+                + "INSERT INTO changes(kind,id,available) VALUES('B',new.id,new.available); END");
+        st.execute("CREATE TRIGGER IF NOT EXISTS books_changes_au AFTER UPDATE OF title, author ON books BEGIN "
+                + "INSERT INTO changes(kind,id,available) VALUES('B',new.id,new.available); END");
+        st.execute("CREATE TRIGGER IF NOT EXISTS books_changes_av AFTER UPDATE OF available ON books WHEN old.available IS NOT new.available BEGIN "
+                + "INSERT INTO changes(kind,id,available) VALUES('A',new.id,new.available); END");
+        st.execute("CREATE TRIGGER IF NOT EXISTS members_changes_ai AFTER INSERT ON members BEGIN "
+                + "INSERT INTO changes(kind,id) VALUES('M',new.id); END");
+        // pruned by the writes themselves, whoever makes them, so the log stays bounded whether
+        // or not anything is polling it
+        st.execute("CREATE TRIGGER IF NOT EXISTS changes_prune AFTER INSERT ON changes WHEN new.seq % " + CHANGES_PRUNE_EVERY + " = 0 BEGIN "
+                + "DELETE FROM changes WHERE seq <= new.seq - " + CHANGES_KEPT + "; END");
+        // catalog version: counts book inserts and edits only. not derived from the change log,
+        // which also logs loans and members and is pruned. starts past every seq an older build
+        // may have stamped a snapshot with, so those snapshots read as stale
+        st.execute("CREATE TABLE IF NOT EXISTS catalog_version(id INTEGER PRIMARY KEY CHECK (id = 0), version INTEGER NOT NULL)");
+        st.execute("INSERT OR IGNORE INTO catalog_version VALUES(0, (SELECT coalesce(max(seq), 0) + 1 FROM changes))");
+        st.execute("CREATE TRIGGER IF NOT EXISTS books_version_ai AFTER INSERT ON books BEGIN "
+                + "UPDATE catalog_version SET version = version + 1 WHERE id = 0; END");
+        st.execute("CREATE TRIGGER IF NOT EXISTS books_version_au AFTER UPDATE OF title, author ON books BEGIN "
+                + "UPDATE catalog_version SET version = version + 1 WHERE id = 0; END");
+    }
+
+    // FTS5 trigram index over books(title, author), kept in sync by triggers. needs SQLite 3.34+,
+    // older builds fall back to LIKE scans in search()
+    private void initSearch(Statement st) {
+        try {
+            boolean created;
+            try (ResultSet rs = st.executeQuery("SELECT name FROM sqlite_master WHERE type='table' AND name='books_fts'")) {
+                created = !rs.next();
+            }
+            st.execute("CREATE VIRTUAL TABLE IF NOT EXISTS books_fts USING fts5(title, author, content='books', content_rowid='rowid', tokenize='trigram')");
+            st.execute("CREATE TRIGGER IF NOT EXISTS books_fts_ai AFTER INSERT ON books BEGIN "
+                    + "INSERT INTO books_fts(rowid,title,author) VALUES(new.rowid,new.title,new.author); END");
+            st.execute("CREATE TRIGGER IF NOT EXISTS books_fts_ad AFTER DELETE ON books BEGIN "
+                    + "INSERT INTO books_fts(books_fts,rowid,title,author) VALUES('delete',old.rowid,old.title,old.author); END");
+            st.execute("CREATE TRIGGER IF NOT EXISTS books_fts_au AFTER UPDATE OF title, author ON books BEGIN "
+                    + "INSERT INTO books_fts(books_fts,rowid,title,author) VALUES('delete',old.rowid,old.title,old.author); "
+                    + "INSERT INTO books_fts(rowid,title,author) VALUES(new.rowid,new.title,new.author); END");
+            if (created) st.execute("INSERT INTO books_fts(books_fts) VALUES('rebuild')");
+            fts = true;
+        } catch (SQLException e) {
+            fts = false;
+        }
+    }
+
+    private static Book readBook(ResultSet rs) throws SQLException {
+        Book b = new Book(rs.getString("id"), rs.getString("title"), rs.getString("author"));
+        b.setAvailable(rs.getInt("available") == 1);
+        return b;
+    }
+
+    private static Loan readLoan(ResultSet rs) throws SQLException {
+        Book b = new Book(rs.getString("book_id"), rs.getString("title"), rs.getString("author"));
+        b.setAvailable(false);
+        Member m = new Member(rs.getString("member_id"), rs.getString("name"));
+        LocalDate borrow = LocalDate.parse(rs.getString("borrow_date"));
+        return new Loan(b, m, borrow, null);
+    }
+
+    private interface RowReader<T> {
+        T read(ResultSet rs) throws SQLException;
+    }
+
+    private static List<Book> readBooks(PreparedStatement ps) throws SQLException {
+        List<Book> out = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) out.add(readBook(rs));
         }
+        return out;
     }
 
     public void addBook(Book b) {
-        try (PreparedStatement ps = conn.prepareStatement("INSERT OR REPLACE INTO books(id,title,author,available) VALUES(?,?,?,?)")) {
+        writeLock.lock();
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            PreparedStatement ps = c.prepare("INSERT INTO books(id,title,author,available) VALUES(?,?,?,?) "
+                    + "ON CONFLICT(id) DO UPDATE SET title=excluded.title, author=excluded.author, available=excluded.available");
             ps.setString(1, b.getId());
             ps.setString(2, b.getTitle());
             ps.setString(3, b.getAuthor());
             ps.setInt(4, b.isAvailable() ? 1 : 0);
             ps.executeUpdate();
-        } catch (SQLException e) { e.printStackTrace(); }
+        } catch (SQLException e) { error("addBook", e); }
+        finally { writeLock.unlock(); }
     }
 
     public void registerMember(Member m) {
-        try (PreparedStatement ps = conn.prepareStatement("INSERT OR REPLACE INTO members(id,name) VALUES(?,?)")) {
+        writeLock.lock();
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            PreparedStatement ps = c.prepare("INSERT OR REPLACE INTO members(id,name) VALUES(?,?)");
             ps.setString(1, m.getId());
             ps.setString(2, m.getName());
             ps.executeUpdate();
-        } catch (SQLException e) { e.printStackTrace(); }
+        } catch (SQLException e) { error("registerMember", e); }
+        finally { writeLock.unlock(); }
     }
 
-    public boolean borrowBook(String bookId, String memberId) {
-        try {
+    // batched inserts, committed every BATCH_SIZE rows. returns how many rows were committed;
+    // on error the current chunk is rolled back and earlier chunks stay
+    @Override
+    public int addBooks(Iterable<Book> batch) {
+        return writeBatched("addBooks", "INSERT INTO books(id,title,author,available) VALUES(?,?,?,?) "
+                + "ON CONFLICT(id) DO UPDATE SET title=excluded.title, author=excluded.author, available=excluded.available",
+                batch, (ps, b) -> {
+                    ps.setString(1, b.getId());
+                    ps.setString(2, b.getTitle());
+                    ps.setString(3, b.getAuthor());
+                    ps.setInt(4, b.isAvailable() ? 1 : 0);
+                });
+    }
+
+    @Override
+    public int registerMembers(Iterable<Member> batch) {
+        return writeBatched("registerMembers", "INSERT OR REPLACE INTO members(id,name) VALUES(?,?)", batch, (ps, m) -> {
+            ps.setString(1, m.getId());
+            ps.setString(2, m.getName());
+        });
+    }
+
+    private interface RowBinder<T> {
+        void bind(PreparedStatement ps, T row) throws SQLException;
+    }
+
+    private <T> int writeBatched(String op, String sql, Iterable<T> rows, RowBinder<T> binder) {
+        int committed = 0;
+        writeLock.lock();
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            Connection conn = c.connection();
             conn.setAutoCommit(false);
-            try (PreparedStatement q = conn.prepareStatement("SELECT available FROM books WHERE id=?")) {
-                q.setString(1, bookId);
-                try (ResultSet rs = q.executeQuery()) {
-                    if (!rs.next() || rs.getInt("available") == 0) { conn.rollback(); conn.setAutoCommit(true); return false; }
+            PreparedStatement ps = c.prepare(sql);
+            int pending = 0;
+            try {
+                for (T row : rows) {
+                    binder.bind(ps, row);
+                    ps.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        ps.executeBatch();
+                        conn.commit();
+                        committed += pending;
+                        pending = 0;
+                    }
                 }
+                if (pending > 0) {
+                    ps.executeBatch();
+                    conn.commit();
+                    committed += pending;
+                }
+            } finally {
+                // the statement is cached, don't leave a half-built batch on it
+                ps.clearBatch();
             }
-            try (PreparedStatement ins = conn.prepareStatement("INSERT INTO loans(book_id,member_id,borrow_date) VALUES(?,?,?)")) {
-                ins.setString(1, bookId);
-                ins.setString(2, memberId);
-                ins.setString(3, LocalDate.now().toString());
-                ins.executeUpdate();
-            }
-            try (PreparedStatement up = conn.prepareStatement("UPDATE books SET available=0 WHERE id=?")) {
-                up.setString(1, bookId); up.executeUpdate();
-            }
-            conn.commit();
-            conn.setAutoCommit(true);
-            return true;
         } catch (SQLException e) {
-            try { conn.rollback(); conn.setAutoCommit(true); } catch (SQLException ex) { }
-            e.printStackTrace();
-            return false;
-        }
+            error(op, e);
+            rollback(op);
+        } finally { writeLock.unlock(); }
+        return committed;
+    }
+
+    // switches borrowBook/returnBook to the group-commit queue: calls block until the writer
+    // thread has committed the group their request landed in
+    public synchronized void enableGroupCommit(int maxBatch) {
+        if (groupCommit == null) groupCommit = new GroupCommitQueue(pool, writeLock, maxBatch);
+    }
+
+    public CompletableFuture<Boolean> borrowBookAsync(String bookId, String memberId) {
+        if (groupCommit != null) return groupCommit.submit(c -> doBorrow(c, bookId, memberId));
+        return CompletableFuture.completedFuture(borrowBook(bookId, memberId));
+    }
+
+    public CompletableFuture<Boolean> returnBookAsync(String bookId) {
+        if (groupCommit != null) return groupCommit.submit(c -> doReturn(c, bookId));
+        return CompletableFuture.completedFuture(returnBook(bookId));
+    }
+
+    public boolean borrowBook(String bookId, String memberId) {
+        if (groupCommit != null) return await("borrowBook", borrowBookAsync(bookId, memberId));
+        return inWriteTransaction("borrowBook", c -> doBorrow(c, bookId, memberId));
     }
 
     public boolean returnBook(String bookId) {
-        try (PreparedStatement q = conn.prepareStatement("SELECT book_id FROM loans WHERE book_id=?")) {
-            q.setString(1, bookId);
-            try (ResultSet rs = q.executeQuery()) {
-                if (!rs.next()) return false;
-            }
-        } catch (SQLException e) { e.printStackTrace(); return false; }
+        if (groupCommit != null) return await("returnBook", returnBookAsync(bookId));
+        return inWriteTransaction("returnBook", c -> doReturn(c, bookId));
+    }
 
-        try {
+    // the availability check and the update are one statement: only a row that is still
+    // available gets flipped, so no separate SELECT is needed
+    private static boolean doBorrow(ConnectionPool.PooledConnection c, String bookId, String memberId) throws SQLException {
+        PreparedStatement up = c.prepare("UPDATE books SET available=0 WHERE id=? AND available=1");
+        up.setString(1, bookId);
+        if (up.executeUpdate() == 0) return false;
+        PreparedStatement ins = c.prepare("INSERT INTO loans(book_id,member_id,borrow_date) VALUES(?,?,?)");
+        ins.setString(1, bookId);
+        ins.setString(2, memberId);
+        ins.setString(3, LocalDate.now().toString());
+        ins.executeUpdate();
+        return true;
+    }
+
+    private static boolean doReturn(ConnectionPool.PooledConnection c, String bookId) throws SQLException {
+        PreparedStatement arch = c.prepare("INSERT INTO loan_history(period,book_id,member_id,borrow_date,return_date) "
+                + "SELECT substr(borrow_date,1,7), book_id, member_id, borrow_date, ? FROM loans WHERE book_id=?");
+        arch.setString(1, LocalDate.now().toString());
+        arch.setString(2, bookId);
+        if (arch.executeUpdate() == 0) return false;
+        PreparedStatement cnt = c.prepare("INSERT INTO loan_counts(period,book_id,count) "
+                + "SELECT substr(borrow_date,1,7), book_id, 1 FROM loans WHERE book_id=? "
+                + "ON CONFLICT(period,book_id) DO UPDATE SET count=count+1");
+        cnt.setString(1, bookId);
+        cnt.executeUpdate();
+        PreparedStatement del = c.prepare("DELETE FROM loans WHERE book_id=?");
+        del.setString(1, bookId);
+        del.executeUpdate();
+        PreparedStatement up = c.prepare("UPDATE books SET available=1 WHERE id=?");
+        up.setString(1, bookId); up.executeUpdate();
+        return true;
+    }
+
+    // runs work in its own transaction, committing only if it reports success. a refused or
+    // failed transaction is rolled back by the pooled connection when it is released
+    private boolean inWriteTransaction(String op, GroupCommitQueue.Op work) {
+        writeLock.lock();
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            Connection conn = c.connection();
             conn.setAutoCommit(false);
-            try (PreparedStatement del = conn.prepareStatement("DELETE FROM loans WHERE book_id=?")) {
-                del.setString(1, bookId); del.executeUpdate();
-            }
-            try (PreparedStatement up = conn.prepareStatement("UPDATE books SET available=1 WHERE id=?")) {
-                up.setString(1, bookId); up.executeUpdate();
+            if (!work.apply(c)) {
+                rollback(op);
+                return false;
             }
-            conn.commit(); conn.setAutoCommit(true);
+            conn.commit();
             return true;
         } catch (SQLException e) {
-            try { conn.rollback(); conn.setAutoCommit(true); } catch (SQLException ex) { }
-            e.printStackTrace();
+            error(op, e);
+            rollback(op);
+            return false;
+        } finally { writeLock.unlock(); }
+    }
+
+    // group commit: refused requests were rolled back to their savepoint by the writer thread
+    private boolean await(String op, CompletableFuture<Boolean> f) {
+        try {
+            boolean ok = f.join();
+            if (!ok) rollback(op);
+            return ok;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) error(op, (SQLException) e.getCause());
+            else e.getCause().printStackTrace();
+            rollback(op);
             return false;
         }
     }
 
+    private void error(String op, SQLException e) {
+        errors.incrementAndGet();
+        e.printStackTrace();
+        SqlListener l = listener;
+        if (l != null) l.onError(op, e);
+    }
+
+    private void rollback(String op) {
+        SqlListener l = listener;
+        if (l != null) l.onRollback(op);
+    }
+
     public List<Book> listAllBooks() {
-        List<Book> out = new ArrayList<>();
-        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT id,title,author,available FROM books")) {
-            while (rs.next()) {
-                Book b = new Book(rs.getString("id"), rs.getString("title"), rs.getString("author"));
-                b.setAvailable(rs.getInt("available") == 1);
-                out.add(b);
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            return readBooks(c.prepare("SELECT id,title,author,available FROM books"));
+        } catch (SQLException e) { error("listAllBooks", e); }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<Book> listBooksAfter(String afterId, int limit) {
+        String sql = afterId == null
+                ? "SELECT id,title,author,available FROM books ORDER BY id LIMIT ?"
+                : "SELECT id,title,author,available FROM books WHERE id > ? ORDER BY id LIMIT ?";
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            PreparedStatement ps = c.prepare(sql);
+            int i = 1;
+            if (afterId != null) ps.setString(i++, afterId);
+            ps.setInt(i, limit);
+            return readBooks(ps);
+        } catch (SQLException e) { error("listBooksAfter", e); }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<Book> listBooksPage(int offset, int limit) {
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            PreparedStatement ps = c.prepare("SELECT id,title,author,available FROM books ORDER BY id LIMIT ? OFFSET ?");
+            ps.setInt(1, limit);
+            ps.setInt(2, offset);
+            return readBooks(ps);
+        } catch (SQLException e) { error("listBooksPage", e); }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<Book> search(String query, int limit) {
+        String q = query == null ? "" : query.trim();
+        String sql;
+        if (q.isEmpty()) sql = "SELECT id,title,author,available FROM books LIMIT ?";
+        else if (fts && q.length() >= 3) sql = "SELECT b.id,b.title,b.author,b.available FROM books_fts JOIN books b ON b.rowid=books_fts.rowid WHERE books_fts MATCH ? LIMIT ?";
+        else sql = "SELECT id,title,author,available FROM books WHERE title LIKE ? ESCAPE '\\' OR author LIKE ? ESCAPE '\\' LIMIT ?";
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            PreparedStatement ps = c.prepare(sql);
+            int i = 1;
+            if (!q.isEmpty()) {
+                if (fts && q.length() >= 3) {
+                    ps.setString(i++, "\"" + q.replace("\"", "\"\"") + "\"");
+                } else {
+                    String like = "%" + q.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+                    ps.setString(i++, like);
+                    ps.setString(i++, like);
+                }
             }
-        } catch (SQLException e) { e.printStackTrace(); }
-        return out;
+            ps.setInt(i, limit);
+            return readBooks(ps);
+        } catch (SQLException e) { error("search", e); }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public int countBooks() {
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            try (ResultSet rs = c.prepare("SELECT COUNT(*) FROM books").executeQuery()) {
+                if (rs.next()) return rs.getInt(1);
+            }
+        } catch (SQLException e) { error("countBooks", e); }
+        return 0;
+    }
+
+    // bumped by a trigger on every insert or edit of a book, from any process; borrows, returns
+    // and new members leave it alone, so they don't invalidate a CatalogSnapshot
+    @Override
+    public long catalogVersion() {
+        try (ConnectionPool.PooledConnection c = pool.acquire();
+             ResultSet rs = c.prepare("SELECT version FROM catalog_version WHERE id = 0").executeQuery()) {
+            return rs.next() ? rs.getLong(1) : -1;
+        } catch (SQLException e) { error("catalogVersion", e); }
+        return -1;
     }
 
     public List<Loan> listLoans() {
         List<Loan> out = new ArrayList<>();
-        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT l.book_id, l.member_id, l.borrow_date, b.title, b.author, m.name FROM loans l JOIN books b ON l.book_id=b.id JOIN members m ON l.member_id=m.id")) {
-            while (rs.next()) {
-                Book b = new Book(rs.getString("book_id"), rs.getString("title"), rs.getString("author"));
-                b.setAvailable(false);
-                Member m = new Member(rs.getString("member_id"), rs.getString("name"));
-                LocalDate borrow = LocalDate.parse(rs.getString("borrow_date"));
-                out.add(new Loan(b, m, borrow, null));
-            }
-        } catch (SQLException e) { e.printStackTrace(); }
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            try (ResultSet rs = c.prepare(LOANS_SQL).executeQuery()) {
+                while (rs.next()) out.add(readLoan(rs));
+            }
+        } catch (SQLException e) { error("listLoans", e); }
         return out;
     }
 
+    @Override
+    public List<Loan> listLoansByMember(String memberId) {
+        return queryLoans(LOANS_SQL + " WHERE l.member_id=?", memberId);
+    }
+
+    @Override
+    public List<Loan> listLoansBorrowedBefore(LocalDate day) {
+        // borrow_date is stored as an ISO date, so string order is date order
+        return queryLoans(LOANS_SQL + " WHERE l.borrow_date < ? ORDER BY l.borrow_date", day.toString());
+    }
+
+    private List<Loan> queryLoans(String sql, String param) {
+        List<Loan> out = new ArrayList<>();
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            PreparedStatement ps = c.prepare(sql);
+            ps.setString(1, param);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(readLoan(rs));
+            }
+        } catch (SQLException e) { error("queryLoans", e); }
+        return out;
+    }
+
+    @Override
+    public List<BookCount> topBorrowed(YearMonth from, YearMonth to, int n) {
+        List<BookCount> out = new ArrayList<>();
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            PreparedStatement ps = c.prepare("SELECT book_id, SUM(count) AS total FROM loan_counts WHERE period BETWEEN ? AND ? "
+                    + "GROUP BY book_id ORDER BY total DESC LIMIT ?");
+            ps.setString(1, from.toString());
+            ps.setString(2, to.toString());
+            ps.setInt(3, n);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(new BookCount(rs.getString("book_id"), rs.getLong("total")));
+            }
+        } catch (SQLException e) { error("topBorrowed", e); }
+        return out;
+    }
+
+    @Override
+    public Map<YearMonth, Long> circulationByMonth(YearMonth from, YearMonth to) {
+        Map<YearMonth, Long> out = new LinkedHashMap<>();
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            PreparedStatement ps = c.prepare("SELECT period, SUM(count) AS total FROM loan_counts WHERE period BETWEEN ? AND ? GROUP BY period ORDER BY period");
+            ps.setString(1, from.toString());
+            ps.setString(2, to.toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.put(YearMonth.parse(rs.getString("period")), rs.getLong("total"));
+            }
+        } catch (SQLException e) { error("circulationByMonth", e); }
+        return out;
+    }
+
+    @Override
+    public List<Book> listAvailableBooks() {
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            return readBooks(c.prepare("SELECT id,title,author,available FROM books WHERE available=1"));
+        } catch (SQLException e) { error("listAvailableBooks", e); }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public Stream<Book> streamBooks() {
+        return stream("SELECT id,title,author,available FROM books", SqlLibrary::readBook);
+    }
+
+    @Override
+    public Stream<Book> streamAvailableBooks() {
+        return stream("SELECT id,title,author,available FROM books WHERE available=1", SqlLibrary::readBook);
+    }
+
+    @Override
+    public Stream<Loan> streamLoans() {
+        return stream(LOANS_SQL, SqlLibrary::readLoan);
+    }
+
+    // export hooks: columns go from the cursor to the sink, no Book/Loan/Member per row. an SQL
+    // error is reported and rethrown, so a cut-off export fails instead of looking complete
+    @Override
+    public void exportBooks(BookRowSink sink) throws IOException {
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            PreparedStatement ps = c.prepare("SELECT id,title,author,available FROM books");
+            ps.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) sink.book(rs.getString(1), rs.getString(2), rs.getString(3), rs.getInt(4) == 1);
+            }
+        } catch (SQLException e) {
+            error("exportBooks", e);
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void exportLoans(LoanRowSink sink) throws IOException {
+        exportLoans(null, null, sink);
+    }
+
+    // partition key: the book id, the primary key of loans. splits come from one walk of that index
+    @Override
+    public List<String> loanPartitions(int parts) {
+        List<String> splits = new ArrayList<>(Math.max(0, parts - 1));
+        if (parts <= 1) return splits;
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            long n;
+            try (ResultSet rs = c.prepare("SELECT COUNT(*) FROM loans").executeQuery()) {
+                n = rs.next() ? rs.getLong(1) : 0;
+            }
+            long step = Math.max(1, n / parts), i = 0;
+            PreparedStatement ps = c.prepare("SELECT book_id FROM loans ORDER BY book_id");
+            ps.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next() && splits.size() < parts - 1) {
+                    if (++i % step == 0) splits.add(rs.getString(1));
+                }
+            }
+        } catch (SQLException e) { error("loanPartitions", e); }
+        return splits;
+    }
+
+    @Override
+    public void exportLoans(String fromKey, String toKey, LoanRowSink sink) throws IOException {
+        String sql = LOANS_SQL + (fromKey == null ? " WHERE 1=1" : " WHERE l.book_id >= ?") + (toKey == null ? "" : " AND l.book_id < ?");
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            PreparedStatement ps = c.prepare(sql);
+            int p = 1;
+            if (fromKey != null) ps.setString(p++, fromKey);
+            if (toKey != null) ps.setString(p, toKey);
+            ps.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    sink.loan(rs.getString("book_id"), rs.getString("title"), rs.getString("author"), rs.getString("member_id"),
+                            rs.getString("name"), LocalDate.parse(rs.getString("borrow_date")));
+                }
+            }
+        } catch (SQLException e) {
+            error("exportLoans", e);
+            throw new IOException(e);
+        }
+    }
+
+    // rows are read from an open cursor as the stream is consumed. the pooled connection stays
+    // leased until the stream is closed or runs out, whichever comes first. with an in-memory
+    // database the pool has one connection: other threads' calls wait until the stream is
+    // closed, and this thread's fail at once (ConnectionPool.acquire)
+    private <T> Stream<T> stream(String sql, RowReader<T> reader) {
+        ConnectionPool.PooledConnection c;
+        ResultSet rs;
+        try {
+            c = pool.acquire();
+        } catch (SQLException e) { error("stream", e); return Stream.empty(); }
+        try {
+            PreparedStatement ps = c.prepare(sql);
+            ps.setFetchSize(FETCH_SIZE);
+            rs = ps.executeQuery();
+        } catch (SQLException e) {
+            c.close();
+            error("stream", e);
+            return Stream.empty();
+        }
+        AtomicBoolean closed = new AtomicBoolean();
+        Runnable close = () -> {
+            if (!closed.compareAndSet(false, true)) return;
+            try { rs.close(); } catch (SQLException ignored) { }
+            c.close();
+        };
+        Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                if (closed.get()) return false;
+                try {
+                    if (!rs.next()) { close.run(); return false; }
+                    action.accept(reader.read(rs));
+                    return true;
+                } catch (SQLException e) {
+                    error("stream", e);
+                    close.run();
+                    return false;
+                }
+            }
+        };
+        return StreamSupport.stream(rows, false).onClose(close);
+    }
+
+    @Override
+    public long errorCount() {
+        return errors.get();
+    }
+
     @Override
     public Optional<Book> findBook(String id) {
-        try (PreparedStatement ps = conn.prepareStatement("SELECT id,title,author,available FROM books WHERE id=?")) {
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            PreparedStatement ps = c.prepare("SELECT id,title,author,available FROM books WHERE id=?");
             ps.setString(1, id);
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    Book b = new Book(rs.getString("id"), rs.getString("title"), rs.getString("author"));
-                    b.setAvailable(rs.getInt("available") == 1);
-                    return Optional.of(b);
-                }
+                if (rs.next()) return Optional.of(readBook(rs));
             }
-        } catch (SQLException e) { e.printStackTrace(); }
+        } catch (SQLException e) { error("findBook", e); }
         return Optional.empty();
     }
 
     public boolean memberExists(String id) {
-        try (PreparedStatement ps = conn.prepareStatement("SELECT id FROM members WHERE id=?")) {
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            PreparedStatement ps = c.prepare("SELECT id FROM members WHERE id=?");
             ps.setString(1, id);
             try (ResultSet rs = ps.executeQuery()) {
                 return rs.next();
             }
-        } catch (SQLException e) { e.printStackTrace(); }
+        } catch (SQLException e) { error("memberExists", e); }
         return false;
     }
+
+    @Override
+    public Optional<Member> findMember(String id) {
+        try (ConnectionPool.PooledConnection c = pool.acquire()) {
+            PreparedStatement ps = c.prepare("SELECT id,name FROM members WHERE id=?");
+            ps.setString(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) return Optional.of(new Member(rs.getString(1), rs.getString(2)));
+            }
+        } catch (SQLException e) { error("findMember", e); }
+        return Optional.empty();
+    }
+
+    // events come from the change log rather than from the write methods, so writes made by
+    // other processes are reported the same way as our own
+    @Override
+    public synchronized void addLibraryListener(LibraryListener listener) {
+        events.addListener(listener);
+        if (changePoller != null) return;
+        polling = true;
+        changePoller = new Thread(this::pollChanges, "sql-library-changes");
+        changePoller.setDaemon(true);
+        changePoller.start();
+    }
+
+    private void pollChanges() {
+        long last = -1;
+        while (polling) {
+            try (ConnectionPool.PooledConnection c = pool.acquire()) {
+                long max = maxChange(c);
+                if (last < 0 || max - last > POLL_BATCH || max < last) {
+                    if (last >= 0) events.reload();
+                    last = max;
+                } else if (max > last) {
+                    PreparedStatement ps = c.prepare("SELECT seq, kind, id, available FROM changes WHERE seq > ? AND seq <= ? ORDER BY seq");
+                    ps.setLong(1, last);
+                    ps.setLong(2, max);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            String kind = rs.getString(2), id = rs.getString(3);
+                            boolean available = rs.getInt(4) == 1;
+                            if ("B".equals(kind)) events.bookAdded(id, available);
+                            else if ("A".equals(kind)) events.availabilityChanged(id, available);
+                            else if ("M".equals(kind)) events.memberRegistered(id);
+                        }
+                    }
+                    last = max;
+                }
+            } catch (SQLException e) {
+                if (polling) error("pollChanges", e);
+            }
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static long maxChange(ConnectionPool.PooledConnection c) throws SQLException {
+        try (ResultSet rs = c.prepare("SELECT coalesce(max(seq), 0) FROM changes").executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        Thread poller;
+        synchronized (this) {
+            polling = false;
+            poller = changePoller;
+        }
+        if (poller != null) {
+            try {
+                poller.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (groupCommit != null) groupCommit.close();
+        pool.close();
+    }
 }
@@ -0,0 +1,459 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// typeahead over book titles and authors. each distinct title/author is a term with a
+// popularity weight (books carrying it + borrows seen). completion matches the typed prefix
+// against the start of any word of a term ("tolk" finds "J.R.R. Tolkien") and returns the k
+// heaviest; misspelt words ("Tolkein", "Orwel") are corrected against the word vocabulary with
+// a BK-tree at edit distance 1 (words up to 4 letters) or 2.
+//
+// layout: every word start is a key packed as (term id << 32 | char offset), kept in one sorted
+// long[] with a max-weight segment tree over it, so a prefix is two binary searches and the top
+// k of its range come out of the tree in O(k log n). no per-key objects, and terms are compared
+// case-insensitively in place, so there are no lowercased copies either. keys added one at a
+// time go to a small TreeMap delta (lowercased text -> key) that is folded into the array once
+// it holds an eighth as many keys, so each merge is paid for by many adds.
+public class SuggestionIndex {
+    private static final int MIN_MERGE = 1 << 16;
+    private static final int MIN_WORD = 3;
+    private static final Set<String> STOPWORDS = new HashSet<>(Arrays.asList("the", "a", "an", "of", "and", "in", "on", "to", "for"));
+
+    private final ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+    private String[] terms = new String[1024];
+    private int[] weights = new int[1024];
+    private int termCount;
+    private long[] keys = new long[0];
+    // tree[n + i] = i for key i; tree[j] = the heavier of its two children
+    private int[] tree = new int[0];
+    private final TreeMap<String, Long> delta = new TreeMap<>();
+    private final BkTree vocabulary = new BkTree();
+
+    // ---- building ----
+
+    // bulk load, for the initial catalog: one sort instead of one insert per key
+    public void addAll(Iterable<Book> books) {
+        rw.writeLock().lock();
+        try {
+            Map<String, Integer> ids = new HashMap<>();
+            for (int i = 0; i < termCount; i++) ids.put(terms[i], i);
+            LongList fresh = new LongList();
+            for (Book b : books) {
+                addTerm(b.getTitle(), ids, fresh);
+                addTerm(b.getAuthor(), ids, fresh);
+            }
+            long[] sorted = fresh.toArray();
+            sort(sorted);
+            keys = mergeSorted(keys, keys.length, sorted, sorted.length);
+            flushDelta();
+        } finally { rw.writeLock().unlock(); }
+    }
+
+    public void add(Book book) {
+        rw.writeLock().lock();
+        try {
+            addTerm(book.getTitle(), null, null);
+            addTerm(book.getAuthor(), null, null);
+            if (delta.size() >= Math.max(MIN_MERGE, keys.length / 8)) flushDelta();
+        } finally { rw.writeLock().unlock(); }
+    }
+
+    // a borrow makes the book's title and author rank higher
+    public void recordBorrow(Book book) {
+        rw.writeLock().lock();
+        try {
+            int t = find(book.getTitle());
+            if (t >= 0) weights[t]++;
+            int a = find(book.getAuthor());
+            if (a >= 0) weights[a]++;
+        } finally { rw.writeLock().unlock(); }
+    }
+
+    public int size() {
+        rw.readLock().lock();
+        try {
+            return termCount;
+        } finally { rw.readLock().unlock(); }
+    }
+
+    // ids is the bulk-load lookup; without it the term is looked up in the keys. new keys go
+    // to fresh (bulk) or into the delta
+    private void addTerm(String term, Map<String, Integer> ids, LongList fresh) {
+        if (term == null || term.trim().isEmpty()) return;
+        Integer known = ids != null ? ids.get(term) : null;
+        int id = ids != null ? (known == null ? -1 : known) : find(term);
+        if (id >= 0) {
+            weights[id]++;
+            return;
+        }
+        id = termCount++;
+        if (id == terms.length) {
+            terms = Arrays.copyOf(terms, id * 2);
+            weights = Arrays.copyOf(weights, id * 2);
+        }
+        terms[id] = term;
+        weights[id] = 1;
+        if (ids != null) ids.put(term, id);
+        for (int off = 0; off < term.length(); off++) {
+            if (!wordStart(term, off)) continue;
+            int end = off;
+            while (end < term.length() && Character.isLetterOrDigit(term.charAt(end))) end++;
+            String word = lowered(term.substring(off, end));
+            if (word.length() >= MIN_WORD && isWord(word)) vocabulary.add(word);
+            if (off > 0 && STOPWORDS.contains(word)) continue;
+            long key = (long) id << 32 | off;
+            if (fresh != null) fresh.add(key);
+            else insertDelta(key);
+        }
+    }
+
+    // only real words are worth correcting to; catalog codes and years aren't misspelt
+    private static boolean isWord(String w) {
+        for (int i = 0; i < w.length(); i++) if (!Character.isLetter(w.charAt(i))) return false;
+        return true;
+    }
+
+    private static boolean wordStart(String s, int i) {
+        return Character.isLetterOrDigit(s.charAt(i)) && (i == 0 || !Character.isLetterOrDigit(s.charAt(i - 1)));
+    }
+
+    // text from the offset, then a separator below any character, then the term id as two chars
+    private String deltaKey(long key) {
+        int id = (int) (key >>> 32);
+        String s = terms[id];
+        StringBuilder sb = new StringBuilder(s.length() + 3);
+        for (int i = (int) key; i < s.length(); i++) sb.append(lower(s.charAt(i)));
+        return sb.append('\0').append((char) (id >>> 16)).append((char) id).toString();
+    }
+
+    private void insertDelta(long key) {
+        delta.put(deltaKey(key), key);
+    }
+
+    private SortedMap<String, Long> deltaRange(String p) {
+        return delta.subMap(p, p + Character.MAX_VALUE);
+    }
+
+    private void flushDelta() {
+        if (!delta.isEmpty()) {
+            long[] d = new long[delta.size()];
+            int i = 0;
+            for (long k : delta.values()) d[i++] = k;
+            sort(d);
+            keys = mergeSorted(keys, keys.length, d, d.length);
+            delta.clear();
+        }
+        buildTree();
+    }
+
+    private void buildTree() {
+        int n = keys.length;
+        tree = new int[2 * n];
+        for (int i = 0; i < n; i++) tree[n + i] = i;
+        for (int j = n - 1; j > 0; j--) tree[j] = heavier(tree[2 * j], tree[2 * j + 1]);
+    }
+
+    // weights bumped since the last merge still rank the final k, but not the tree's choice of candidates
+    private int heavier(int a, int b) {
+        return weight(keys[a]) >= weight(keys[b]) ? a : b;
+    }
+
+    private int weight(long key) {
+        return weights[(int) (key >>> 32)];
+    }
+
+    // exact term lookup through its offset-0 key. keys compare lowercased, so the probe is too
+    private int find(String term) {
+        String p = lowered(term);
+        int id = findIn(keys, 0, keys.length, p, term);
+        if (id >= 0) return id;
+        for (long k : deltaRange(p).values()) {
+            int t = (int) (k >>> 32);
+            if ((int) k == 0 && terms[t].equals(term)) return t;
+        }
+        return -1;
+    }
+
+    // p is term lowercased
+    private int findIn(long[] a, int from, int to, String p, String term) {
+        for (int i = lowerBound(a, from, to, p); i < to && comparePrefix(a[i], p) == 0; i++) {
+            int id = (int) (a[i] >>> 32);
+            if ((int) a[i] == 0 && terms[id].equals(term)) return id;
+        }
+        return -1;
+    }
+
+    // ---- queries ----
+
+    // up to k titles/authors for what has been typed so far, best first
+    public List<String> suggest(String input, int k) {
+        String q = input == null ? "" : lowered(input.trim());
+        List<String> out = new ArrayList<>(k);
+        if (q.isEmpty() || k <= 0) return out;
+        rw.readLock().lock();
+        try {
+            complete(q, k, out);
+            if (!out.isEmpty()) return out;
+            // nothing starts like that: correct the words that aren't in the vocabulary
+            String[] words = q.split("[^\\p{L}\\p{N}]+");
+            StringBuilder fixed = new StringBuilder();
+            List<String> corrections = new ArrayList<>();
+            for (int i = 0; i < words.length; i++) {
+                String w = words[i];
+                boolean last = i == words.length - 1;
+                if (w.length() >= MIN_WORD && !(last ? hasPrefix(w) : vocabulary.contains(w))) {
+                    String c = vocabulary.closest(w, w.length() <= 4 ? 1 : 2);
+                    if (c != null) { w = c; corrections.add(c); }
+                }
+                if (fixed.length() > 0) fixed.append(' ');
+                fixed.append(w);
+            }
+            if (corrections.isEmpty()) return out;
+            complete(fixed.toString(), k, out);
+            // the corrected phrase may still not start any term; try the corrected words alone
+            for (String c : corrections) if (out.size() < k) complete(c, k, out);
+            return out;
+        } finally { rw.readLock().unlock(); }
+    }
+
+    private boolean hasPrefix(String p) {
+        int i = lowerBound(keys, 0, keys.length, p);
+        if (i < keys.length && comparePrefix(keys[i], p) == 0) return true;
+        return !deltaRange(p).isEmpty();
+    }
+
+    // adds up to k terms whose word starts match p (lowercase) to out, heaviest first. terms
+    // differing only in case ("George Orwell", "GEORGE ORWELL") are shown once
+    private void complete(String p, int k, List<String> out) {
+        Set<Integer> seen = new HashSet<>();
+        Set<String> shown = new HashSet<>();
+        for (String s : out) {
+            seen.add(find(s));
+            shown.add(lowered(s));
+        }
+        List<Integer> found = new ArrayList<>();
+        int lo = lowerBound(keys, 0, keys.length, p), hi = upperBound(keys, lo, keys.length, p);
+        if (lo < hi) {
+            // best-first over the segment tree: pop the heaviest key of a range, split around it
+            PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> Integer.compare(weight(keys[b[2]]), weight(keys[a[2]])));
+            ranges.add(new int[] {lo, hi, argmax(lo, hi)});
+            int budget = 4 * k + 16;
+            while (!ranges.isEmpty() && found.size() < k && budget-- > 0) {
+                int[] r = ranges.poll();
+                int id = (int) (keys[r[2]] >>> 32);
+                if (seen.add(id)) found.add(id);
+                if (r[0] < r[2]) ranges.add(new int[] {r[0], r[2], argmax(r[0], r[2])});
+                if (r[2] + 1 < r[1]) ranges.add(new int[] {r[2] + 1, r[1], argmax(r[2] + 1, r[1])});
+            }
+        }
+        for (long key : deltaRange(p).values()) {
+            int id = (int) (key >>> 32);
+            if (seen.add(id)) found.add(id);
+        }
+        found.sort((a, b) -> Integer.compare(weights[b], weights[a]));
+        for (int i = 0; i < found.size() && out.size() < k; i++) {
+            String t = terms[found.get(i)];
+            if (shown.add(lowered(t))) out.add(t);
+        }
+    }
+
+    // index of the heaviest key in [lo, hi)
+    private int argmax(int lo, int hi) {
+        int n = keys.length;
+        int best = lo;
+        for (int l = lo + n, r = hi + n; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) best = heavier(best, tree[l++]);
+            if ((r & 1) == 1) best = heavier(best, tree[--r]);
+        }
+        return best;
+    }
+
+    // ---- key order: the term text from the key's offset, case-insensitive, then term id ----
+
+    private int compareKeys(long a, long b) {
+        String s = terms[(int) (a >>> 32)], t = terms[(int) (b >>> 32)];
+        int i = (int) a, j = (int) b;
+        while (i < s.length() && j < t.length()) {
+            int c = lower(s.charAt(i++)) - lower(t.charAt(j++));
+            if (c != 0) return c;
+        }
+        int c = (s.length() - i) - (t.length() - j);
+        return c != 0 ? c : Long.compare(a >>> 32, b >>> 32);
+    }
+
+    private static char lower(char c) {
+        if (c < 128) return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+        return Character.toLowerCase(c);
+    }
+
+    // lowercased char by char, the way keys compare, and the same in every default locale
+    private static String lowered(String s) {
+        char[] c = s.toCharArray();
+        for (int i = 0; i < c.length; i++) c[i] = lower(c[i]);
+        return new String(c);
+    }
+
+    // 0 if the key's text starts with p
+    private int comparePrefix(long key, String p) {
+        String s = terms[(int) (key >>> 32)];
+        int i = (int) key;
+        for (int j = 0; j < p.length(); j++, i++) {
+            if (i >= s.length()) return -1;
+            int c = lower(s.charAt(i)) - p.charAt(j);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    private int lowerBound(long[] a, int from, int to, String p) {
+        while (from < to) {
+            int m = (from + to) >>> 1;
+            if (comparePrefix(a[m], p) < 0) from = m + 1; else to = m;
+        }
+        return from;
+    }
+
+    private int upperBound(long[] a, int from, int to, String p) {
+        while (from < to) {
+            int m = (from + to) >>> 1;
+            if (comparePrefix(a[m], p) <= 0) from = m + 1; else to = m;
+        }
+        return from;
+    }
+
+    private long[] mergeSorted(long[] a, int na, long[] b, int nb) {
+        long[] out = new long[na + nb];
+        int i = 0, j = 0, o = 0;
+        while (i < na && j < nb) out[o++] = compareKeys(a[i], b[j]) <= 0 ? a[i++] : b[j++];
+        while (i < na) out[o++] = a[i++];
+        while (j < nb) out[o++] = b[j++];
+        return out;
+    }
+
+    // bottom-up merge sort in compareKeys order; Arrays.sort has no comparator for long[]
+    private void sort(long[] a) {
+        mergeSort(a, 0, a.length, new long[a.length]);
+    }
+
+    private void mergeSort(long[] a, int from, int to, long[] tmp) {
+        for (int width = 1; width < to - from; width *= 2) {
+            for (int lo = from; lo < to; lo += 2 * width) {
+                int mid = Math.min(lo + width, to), hi = Math.min(lo + 2 * width, to);
+                int i = lo, j = mid, o = lo;
+                while (i < mid && j < hi) tmp[o++] = compareKeys(a[i], a[j]) <= 0 ? a[i++] : a[j++];
+                while (i < mid) tmp[o++] = a[i++];
+                while (j < hi) tmp[o++] = a[j++];
+            }
+            System.arraycopy(tmp, from, a, from, to - from);
+        }
+    }
+
+    private static final class LongList {
+        long[] a = new long[1024];
+        int n;
+
+        void add(long v) {
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            a[n++] = v;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(a, n);
+        }
+    }
+
+    // BK-tree over the distinct words of all terms, for spelling correction. children are kept
+    // in small parallel arrays indexed by their edit distance to the parent
+    private static final class BkTree {
+        private static final class Node {
+            final String word;
+            int count = 1;
+            int[] dist = new int[2];
+            Node[] kids = new Node[2];
+            int n;
+
+            Node(String word) {
+                this.word = word;
+            }
+
+            Node child(int d) {
+                for (int i = 0; i < n; i++) if (dist[i] == d) return kids[i];
+                return null;
+            }
+
+            void addChild(int d, Node c) {
+                if (n == kids.length) {
+                    dist = Arrays.copyOf(dist, n * 2);
+                    kids = Arrays.copyOf(kids, n * 2);
+                }
+                dist[n] = d;
+                kids[n++] = c;
+            }
+        }
+
+        private Node root;
+        private final Map<String, Node> words = new HashMap<>();
+
+        boolean contains(String w) {
+            return words.containsKey(w);
+        }
+
+        void add(String w) {
+            Node known = words.get(w);
+            if (known != null) { known.count++; return; }
+            Node fresh = new Node(w);
+            words.put(w, fresh);
+            if (root == null) { root = fresh; return; }
+            Node n = root;
+            while (true) {
+                int d = distance(w, n.word);
+                Node c = n.child(d);
+                if (c == null) { n.addChild(d, fresh); return; }
+                n = c;
+            }
+        }
+
+        // nearest word within max edits, the more common one on ties; null if none
+        String closest(String w, int max) {
+            if (root == null) return null;
+            Node best = null;
+            int bestD = max + 1;
+            List<Node> stack = new ArrayList<>();
+            stack.add(root);
+            while (!stack.isEmpty()) {
+                Node n = stack.remove(stack.size() - 1);
+                int d = distance(w, n.word);
+                if (d < bestD || (d == bestD && best != null && n.count > best.count)) {
+                    best = n;
+                    bestD = d;
+                }
+                // triangle inequality: only children at distance d - max .. d + max can be close enough
+                for (int i = 0; i < n.n; i++) if (Math.abs(n.dist[i] - d) <= max) stack.add(n.kids[i]);
+            }
+            return best == null ? null : best.word;
+        }
+
+        // Levenshtein distance, two rows
+        static int distance(String a, String b) {
+            int[] prev = new int[b.length() + 1], cur = new int[b.length() + 1];
+            for (int j = 0; j <= b.length(); j++) prev[j] = j;
+            for (int i = 1; i <= a.length(); i++) {
+                cur[0] = i;
+                for (int j = 1; j <= b.length(); j++) {
+                    int sub = prev[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                    cur[j] = Math.min(sub, Math.min(prev[j] + 1, cur[j - 1] + 1));
+                }
+                int[] t = prev; prev = cur; cur = t;
+            }
+            return prev[b.length()];
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+// check for the typeahead: terms added again are counted, not duplicated; prefixes and
+// misspellings match whatever the case of the catalog or the input; borrows change the ranking.
+// covers both the merged array (addAll) and the delta (add). exits 1 on any failure.
+//
+//   java SuggestionIndexCheck
+public class SuggestionIndexCheck {
+    private static final List<String> problems = new ArrayList<>();
+
+    public static void main(String[] args) {
+        List<Book> catalog = Arrays.asList(
+                new Book("B1", "1984", "George Orwell"),
+                new Book("B2", "Animal Farm", "George Orwell"),
+                new Book("B3", "The Hobbit", "J.R.R. Tolkien"),
+                new Book("B4", "The Lord of the Rings", "J.R.R. Tolkien"),
+                new Book("B5", "Brave New World", "Aldous Huxley"),
+                new Book("B6", "Middlemarch", "George Eliot"));
+
+        SuggestionIndex bulk = new SuggestionIndex();
+        bulk.addAll(catalog);
+        check("bulk", bulk, catalog);
+
+        SuggestionIndex incremental = new SuggestionIndex();
+        for (Book b : catalog) incremental.add(b);
+        check("incremental", incremental, catalog);
+
+        // lowercasing can't depend on the default locale: in Turkish, "I" lowercases to a dotless i
+        Locale.setDefault(Locale.forLanguageTag("tr"));
+        SuggestionIndex turkish = new SuggestionIndex();
+        turkish.addAll(catalog);
+        turkish.add(new Book("B8", "THE ILIAD", "Homer"));
+        expect("tr: 'TOLKIEN' finds Tolkien", turkish.suggest("TOLKIEN", 8).contains("J.R.R. Tolkien"));
+        expect("tr: 'iliad' finds THE ILIAD", turkish.suggest("iliad", 8).contains("THE ILIAD"));
+        expect("tr: 'iliadd' finds THE ILIAD", turkish.suggest("iliadd", 8).contains("THE ILIAD"));
+
+        if (problems.isEmpty()) {
+            System.out.println("SuggestionIndexCheck: ok");
+        } else {
+            for (String p : problems) System.err.println(p);
+            System.err.println("SuggestionIndexCheck: FAILED, " + problems.size() + " problems");
+            System.exit(1);
+        }
+    }
+
+    private static void check(String name, SuggestionIndex index, List<Book> catalog) {
+        int terms = index.size();
+        // the same books again, one at a time and in bulk: weights go up, the terms stay
+        for (Book b : catalog) index.add(b);
+        index.addAll(catalog);
+        expect(name + ": re-adding keeps " + terms + " terms", index.size() == terms);
+        index.add(new Book("B7", "Homage to Catalonia", "George Orwell"));
+        expect(name + ": known author adds only the new title", index.size() == terms + 1);
+
+        for (String q : new String[] {"geo", "GEO", "George", "orw", "Orwell"}) {
+            List<String> s = index.suggest(q, 8);
+            expect(name + ": '" + q + "' gives George Orwell once, got " + s, count(s, "George Orwell") == 1);
+            expect(name + ": '" + q + "' has no duplicates, got " + s, new HashSet<>(s).size() == s.size());
+        }
+        expect(name + ": 'tolkein' finds Tolkien", index.suggest("tolkein", 8).contains("J.R.R. Tolkien"));
+        expect(name + ": 'Tolkein' finds Tolkien", index.suggest("Tolkein", 8).contains("J.R.R. Tolkien"));
+        expect(name + ": 'orwel' finds Orwell", index.suggest("orwel", 8).contains("George Orwell"));
+        expect(name + ": 'hobit' finds The Hobbit", index.suggest("hobit", 8).contains("The Hobbit"));
+
+        // George Orwell carries three books, George Eliot one, until Eliot is borrowed enough
+        List<String> before = index.suggest("george", 2);
+        expect(name + ": Orwell ranks first before borrows, got " + before, before.indexOf("George Orwell") == 0);
+        Book middlemarch = catalog.get(5);
+        for (int i = 0; i < 10; i++) index.recordBorrow(middlemarch);
+        List<String> after = index.suggest("george", 2);
+        expect(name + ": Eliot ranks first after borrows, got " + after, after.indexOf("George Eliot") == 0);
+        expect(name + ": Middlemarch is suggested for 'mid'", index.suggest("Mid", 1).contains("Middlemarch"));
+    }
+
+    private static int count(List<String> list, String s) {
+        int n = 0;
+        for (String x : list) if (x.equals(s)) n++;
+        return n;
+    }
+
+    private static void expect(String what, boolean ok) {
+        if (!ok) problems.add(what);
+    }
+}
@@ -0,0 +1,108 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.*;
+import java.awt.event.*;
+import java.util.List;
+import java.util.function.Function;
+
+// dropdown of typeahead suggestions under a text field, filled on every keystroke. the popup
+// window never takes focus, so typing carries on in the field: Up/Down move the selection,
+// Enter or a click puts the suggestion in the field, Escape closes it.
+public class SuggestionPopup {
+    private static final int ROWS = 8;
+
+    private final JTextField field;
+    private final Function<String, List<String>> source;
+    private final DefaultListModel<String> model = new DefaultListModel<>();
+    private final JList<String> list = new JList<>(model);
+    private JWindow window;
+    private boolean accepting;
+
+    // source maps the field's text to suggestions, best first; it runs on the EDT
+    public SuggestionPopup(JTextField field, Function<String, List<String>> source) {
+        this.field = field;
+        this.source = source;
+        list.setFocusable(false);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int i = list.locationToIndex(e.getPoint());
+                if (i >= 0) accept(model.get(i));
+            }
+        });
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { update(); }
+            public void removeUpdate(DocumentEvent e) { update(); }
+            public void changedUpdate(DocumentEvent e) { update(); }
+        });
+        field.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (!isVisible()) return;
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_DOWN: move(1); e.consume(); break;
+                    case KeyEvent.VK_UP: move(-1); e.consume(); break;
+                    case KeyEvent.VK_ENTER:
+                        if (list.getSelectedValue() != null) { accept(list.getSelectedValue()); e.consume(); }
+                        break;
+                    case KeyEvent.VK_ESCAPE: hide(); e.consume(); break;
+                    default:
+                }
+            }
+        });
+        field.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) { hide(); }
+        });
+    }
+
+    private boolean isVisible() {
+        return window != null && window.isVisible();
+    }
+
+    private void update() {
+        if (accepting) return;
+        String text = field.getText();
+        List<String> found = text.trim().isEmpty() ? List.of() : source.apply(text);
+        model.clear();
+        for (String s : found) model.addElement(s);
+        if (model.isEmpty() || !field.isShowing()) {
+            hide();
+            return;
+        }
+        list.clearSelection();
+        list.setVisibleRowCount(Math.min(ROWS, model.size()));
+        if (window == null) {
+            window = new JWindow(SwingUtilities.getWindowAncestor(field));
+            window.setFocusableWindowState(false);
+            JScrollPane scroll = new JScrollPane(list);
+            scroll.setBorder(BorderFactory.createLineBorder(Color.GRAY));
+            window.add(scroll);
+        }
+        Point at = field.getLocationOnScreen();
+        window.pack();
+        window.setBounds(at.x, at.y + field.getHeight(), field.getWidth(), window.getPreferredSize().height);
+        window.setVisible(true);
+    }
+
+    private void move(int by) {
+        int i = list.getSelectedIndex() + by;
+        if (i < 0 || i >= model.size()) return;
+        list.setSelectedIndex(i);
+        list.ensureIndexIsVisible(i);
+    }
+
+    private void accept(String s) {
+        accepting = true;
+        try {
+            field.setText(s);
+        } finally { accepting = false; }
+        hide();
+    }
+
+    public void hide() {
+        if (window != null) window.setVisible(false);
+    }
+}
@@ -0,0 +1,78 @@
+package bench;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// JMH suite over the Library backends: every op of LibraryBenchmark, parameterized over
+// backend, catalog size and share of books on loan, once on one thread and once on all cores
+// against the same library. results go to build/reports/jmh/results.json (gradle jmh).
+//
+// the library classes live in the default package, which JMH refuses and a package can't
+// import, so the populated backend comes from LibraryBenchmark.workload() by reflection, once
+// per trial; the measured call is a plain LongSupplier.
+//
+//   gradle jmh -Pjmh.args="-p backend=memory -p size=1000000 -p op=findBook"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LibraryJmh {
+    @Param({"memory", "sqlite"})
+    public String backend;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"0", "0.5"})
+    public double loanRatio;
+
+    @Param({"findBook", "borrowReturn", "search", "memberExists", "listLoans", "loansByMember", "loansBefore", "listAllBooks"})
+    public String op;
+
+    private LongSupplier workload;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        try {
+            workload = (LongSupplier) Class.forName("LibraryBenchmark")
+                    .getMethod("workload", String.class, int.class, double.class, String.class)
+                    .invoke(null, backend, size, loanRatio, op);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        ((AutoCloseable) workload).close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long singleThread() {
+        return workload.getAsLong();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long allCores() {
+        return workload.getAsLong();
+    }
+}